@@ -0,0 +1,69 @@
+//
+// Copyright (c) ZeroC, Inc. All rights reserved.
+//
+//
+// Ice version 3.7.10
+//
+// <auto-generated>
+//
+// Generated from file `chat.ice'
+//
+// Warning: do not edit this file.
+//
+// </auto-generated>
+//
+
+package chat;
+
+public class AudioRejected extends com.zeroc.Ice.UserException
+{
+    public AudioRejected()
+    {
+        this.reason = "";
+    }
+
+    public AudioRejected(Throwable cause)
+    {
+        super(cause);
+        this.reason = "";
+    }
+
+    public AudioRejected(String reason)
+    {
+        this.reason = reason;
+    }
+
+    public AudioRejected(String reason, Throwable cause)
+    {
+        super(cause);
+        this.reason = reason;
+    }
+
+    public String ice_id()
+    {
+        return "::chat::AudioRejected";
+    }
+
+    public String reason;
+
+    /** @hidden */
+    @Override
+    protected void _writeImpl(com.zeroc.Ice.OutputStream ostr_)
+    {
+        ostr_.startSlice("::chat::AudioRejected", -1, true);
+        ostr_.writeString(reason);
+        ostr_.endSlice();
+    }
+
+    /** @hidden */
+    @Override
+    protected void _readImpl(com.zeroc.Ice.InputStream istr_)
+    {
+        istr_.startSlice();
+        reason = istr_.readString();
+        istr_.endSlice();
+    }
+
+    /** @hidden */
+    public static final long serialVersionUID = -1438573091L;
+}
@@ -27,7 +27,12 @@ public interface ChatService extends com.zeroc.Ice.Object
 
     Message[] getHistory(String scope, String id, com.zeroc.Ice.Current current);
 
-    String beginAudio(String toType, String to, String fromUser, String mimeType, com.zeroc.Ice.Current current);
+    HistoryPage getHistoryPage(String scope, String id, long beforeCursor, int limit, com.zeroc.Ice.Current current);
+
+    HistoryPage getHistorySince(String scope, String id, long afterCursor, int limit, com.zeroc.Ice.Current current);
+
+    String beginAudio(String toType, String to, String fromUser, String mimeType, com.zeroc.Ice.Current current)
+        throws AudioRejected;
 
     void sendAudioChunk(String streamId, int index, int total, byte[] data, com.zeroc.Ice.Current current);
 
@@ -165,6 +170,60 @@ public interface ChatService extends com.zeroc.Ice.Object
         return inS.setResult(ostr);
     }
 
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_getHistoryPage(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_scope;
+        String iceP_id;
+        long iceP_beforeCursor;
+        int iceP_limit;
+        iceP_scope = istr.readString();
+        iceP_id = istr.readString();
+        iceP_beforeCursor = istr.readLong();
+        iceP_limit = istr.readInt();
+        inS.endReadParams();
+        HistoryPage ret = obj.getHistoryPage(iceP_scope, iceP_id, iceP_beforeCursor, iceP_limit, current);
+        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
+        HistoryPage.ice_write(ostr, ret);
+        inS.endWriteParams(ostr);
+        return inS.setResult(ostr);
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_getHistorySince(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_scope;
+        String iceP_id;
+        long iceP_afterCursor;
+        int iceP_limit;
+        iceP_scope = istr.readString();
+        iceP_id = istr.readString();
+        iceP_afterCursor = istr.readLong();
+        iceP_limit = istr.readInt();
+        inS.endReadParams();
+        HistoryPage ret = obj.getHistorySince(iceP_scope, iceP_id, iceP_afterCursor, iceP_limit, current);
+        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
+        HistoryPage.ice_write(ostr, ret);
+        inS.endWriteParams(ostr);
+        return inS.setResult(ostr);
+    }
+
     /**
      * @hidden
      * @param obj -
@@ -173,6 +232,7 @@ public interface ChatService extends com.zeroc.Ice.Object
      * @return -
     **/
     static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_beginAudio(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
     {
         com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
         com.zeroc.Ice.InputStream istr = inS.startReadParams();
@@ -243,6 +303,8 @@ public interface ChatService extends com.zeroc.Ice.Object
         "createGroup",
         "endAudio",
         "getHistory",
+        "getHistoryPage",
+        "getHistorySince",
         "ice_id",
         "ice_ids",
         "ice_isA",
@@ -284,33 +346,41 @@ public interface ChatService extends com.zeroc.Ice.Object
             }
             case 4:
             {
-                return com.zeroc.Ice.Object._iceD_ice_id(this, in, current);
+                return _iceD_getHistoryPage(this, in, current);
             }
             case 5:
             {
-                return com.zeroc.Ice.Object._iceD_ice_ids(this, in, current);
+                return _iceD_getHistorySince(this, in, current);
             }
             case 6:
             {
-                return com.zeroc.Ice.Object._iceD_ice_isA(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_id(this, in, current);
             }
             case 7:
             {
-                return com.zeroc.Ice.Object._iceD_ice_ping(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_ids(this, in, current);
             }
             case 8:
             {
-                return _iceD_registerClient(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_isA(this, in, current);
             }
             case 9:
             {
-                return _iceD_sendAudioChunk(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_ping(this, in, current);
             }
             case 10:
             {
-                return _iceD_sendText(this, in, current);
+                return _iceD_registerClient(this, in, current);
             }
             case 11:
+            {
+                return _iceD_sendAudioChunk(this, in, current);
+            }
+            case 12:
+            {
+                return _iceD_sendText(this, in, current);
+            }
+            case 13:
             {
                 return _iceD_unregisterClient(this, in, current);
             }
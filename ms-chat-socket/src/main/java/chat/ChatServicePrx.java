@@ -217,14 +217,119 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
         return f;
     }
 
+    default HistoryPage getHistoryPage(String scope, String id, long beforeCursor, int limit)
+    {
+        return getHistoryPage(scope, id, beforeCursor, limit, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default HistoryPage getHistoryPage(String scope, String id, long beforeCursor, int limit, java.util.Map<String, String> context)
+    {
+        return _iceI_getHistoryPageAsync(scope, id, beforeCursor, limit, context, true).waitForResponse();
+    }
+
+    default java.util.concurrent.CompletableFuture<HistoryPage> getHistoryPageAsync(String scope, String id, long beforeCursor, int limit)
+    {
+        return _iceI_getHistoryPageAsync(scope, id, beforeCursor, limit, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<HistoryPage> getHistoryPageAsync(String scope, String id, long beforeCursor, int limit, java.util.Map<String, String> context)
+    {
+        return _iceI_getHistoryPageAsync(scope, id, beforeCursor, limit, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_scope -
+     * @param iceP_id -
+     * @param iceP_beforeCursor -
+     * @param iceP_limit -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<HistoryPage> _iceI_getHistoryPageAsync(String iceP_scope, String iceP_id, long iceP_beforeCursor, int iceP_limit, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<HistoryPage> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "getHistoryPage", null, sync, null);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_scope);
+                     ostr.writeString(iceP_id);
+                     ostr.writeLong(iceP_beforeCursor);
+                     ostr.writeInt(iceP_limit);
+                 }, istr -> {
+                     HistoryPage ret;
+                     ret = HistoryPage.ice_read(istr);
+                     return ret;
+                 });
+        return f;
+    }
+
+    default HistoryPage getHistorySince(String scope, String id, long afterCursor, int limit)
+    {
+        return getHistorySince(scope, id, afterCursor, limit, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default HistoryPage getHistorySince(String scope, String id, long afterCursor, int limit, java.util.Map<String, String> context)
+    {
+        return _iceI_getHistorySinceAsync(scope, id, afterCursor, limit, context, true).waitForResponse();
+    }
+
+    default java.util.concurrent.CompletableFuture<HistoryPage> getHistorySinceAsync(String scope, String id, long afterCursor, int limit)
+    {
+        return _iceI_getHistorySinceAsync(scope, id, afterCursor, limit, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<HistoryPage> getHistorySinceAsync(String scope, String id, long afterCursor, int limit, java.util.Map<String, String> context)
+    {
+        return _iceI_getHistorySinceAsync(scope, id, afterCursor, limit, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_scope -
+     * @param iceP_id -
+     * @param iceP_afterCursor -
+     * @param iceP_limit -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<HistoryPage> _iceI_getHistorySinceAsync(String iceP_scope, String iceP_id, long iceP_afterCursor, int iceP_limit, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<HistoryPage> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "getHistorySince", null, sync, null);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_scope);
+                     ostr.writeString(iceP_id);
+                     ostr.writeLong(iceP_afterCursor);
+                     ostr.writeInt(iceP_limit);
+                 }, istr -> {
+                     HistoryPage ret;
+                     ret = HistoryPage.ice_read(istr);
+                     return ret;
+                 });
+        return f;
+    }
+
     default String beginAudio(String toType, String to, String fromUser, String mimeType)
+        throws AudioRejected
     {
         return beginAudio(toType, to, fromUser, mimeType, com.zeroc.Ice.ObjectPrx.noExplicitContext);
     }
 
     default String beginAudio(String toType, String to, String fromUser, String mimeType, java.util.Map<String, String> context)
-    {
-        return _iceI_beginAudioAsync(toType, to, fromUser, mimeType, context, true).waitForResponse();
+        throws AudioRejected
+    {
+        try
+        {
+            return _iceI_beginAudioAsync(toType, to, fromUser, mimeType, context, true).waitForResponseOrUserEx();
+        }
+        catch(AudioRejected ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
     }
 
     default java.util.concurrent.CompletableFuture<java.lang.String> beginAudioAsync(String toType, String to, String fromUser, String mimeType)
@@ -249,7 +354,7 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
      **/
     default com.zeroc.IceInternal.OutgoingAsync<java.lang.String> _iceI_beginAudioAsync(String iceP_toType, String iceP_to, String iceP_fromUser, String iceP_mimeType, java.util.Map<String, String> context, boolean sync)
     {
-        com.zeroc.IceInternal.OutgoingAsync<java.lang.String> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "beginAudio", null, sync, null);
+        com.zeroc.IceInternal.OutgoingAsync<java.lang.String> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "beginAudio", null, sync, _iceE_beginAudio);
         f.invoke(true, context, null, ostr -> {
                      ostr.writeString(iceP_toType);
                      ostr.writeString(iceP_to);
@@ -263,6 +368,12 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
         return f;
     }
 
+    /** @hidden */
+    static final Class<?>[] _iceE_beginAudio =
+    {
+        AudioRejected.class
+    };
+
     default void sendAudioChunk(String streamId, int index, int total, byte[] data)
     {
         sendAudioChunk(streamId, index, total, data, com.zeroc.Ice.ObjectPrx.noExplicitContext);
@@ -0,0 +1,153 @@
+//
+// Copyright (c) ZeroC, Inc. All rights reserved.
+//
+//
+// Ice version 3.7.10
+//
+// <auto-generated>
+//
+// Generated from file `chat.ice'
+//
+// Warning: do not edit this file.
+//
+// </auto-generated>
+//
+
+package chat;
+
+public class HistoryPage implements java.lang.Cloneable,
+                                    java.io.Serializable
+{
+    public long firstCursor;
+
+    public Message[] items;
+
+    public HistoryPage()
+    {
+    }
+
+    public HistoryPage(long firstCursor, Message[] items)
+    {
+        this.firstCursor = firstCursor;
+        this.items = items;
+    }
+
+    public boolean equals(java.lang.Object rhs)
+    {
+        if(this == rhs)
+        {
+            return true;
+        }
+        HistoryPage r = null;
+        if(rhs instanceof HistoryPage)
+        {
+            r = (HistoryPage)rhs;
+        }
+
+        if(r != null)
+        {
+            if(this.firstCursor != r.firstCursor)
+            {
+                return false;
+            }
+            if(!java.util.Arrays.equals(this.items, r.items))
+            {
+                return false;
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    public int hashCode()
+    {
+        int h_ = 5381;
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, "::chat::HistoryPage");
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, firstCursor);
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, items);
+        return h_;
+    }
+
+    public HistoryPage clone()
+    {
+        HistoryPage c = null;
+        try
+        {
+            c = (HistoryPage)super.clone();
+        }
+        catch(CloneNotSupportedException ex)
+        {
+            assert false; // impossible
+        }
+        return c;
+    }
+
+    public void ice_writeMembers(com.zeroc.Ice.OutputStream ostr)
+    {
+        ostr.writeLong(this.firstCursor);
+        MessageSeqHelper.write(ostr, this.items);
+    }
+
+    public void ice_readMembers(com.zeroc.Ice.InputStream istr)
+    {
+        this.firstCursor = istr.readLong();
+        this.items = MessageSeqHelper.read(istr);
+    }
+
+    static public void ice_write(com.zeroc.Ice.OutputStream ostr, HistoryPage v)
+    {
+        if(v == null)
+        {
+            _nullMarshalValue.ice_writeMembers(ostr);
+        }
+        else
+        {
+            v.ice_writeMembers(ostr);
+        }
+    }
+
+    static public HistoryPage ice_read(com.zeroc.Ice.InputStream istr)
+    {
+        HistoryPage v = new HistoryPage();
+        v.ice_readMembers(istr);
+        return v;
+    }
+
+    static public void ice_write(com.zeroc.Ice.OutputStream ostr, int tag, java.util.Optional<HistoryPage> v)
+    {
+        if(v != null && v.isPresent())
+        {
+            ice_write(ostr, tag, v.get());
+        }
+    }
+
+    static public void ice_write(com.zeroc.Ice.OutputStream ostr, int tag, HistoryPage v)
+    {
+        if(ostr.writeOptional(tag, com.zeroc.Ice.OptionalFormat.FSize))
+        {
+            int pos = ostr.startSize();
+            ice_write(ostr, v);
+            ostr.endSize(pos);
+        }
+    }
+
+    static public java.util.Optional<HistoryPage> ice_read(com.zeroc.Ice.InputStream istr, int tag)
+    {
+        if(istr.readOptional(tag, com.zeroc.Ice.OptionalFormat.FSize))
+        {
+            istr.skip(4);
+            return java.util.Optional.of(HistoryPage.ice_read(istr));
+        }
+        else
+        {
+            return java.util.Optional.empty();
+        }
+    }
+
+    private static final HistoryPage _nullMarshalValue = new HistoryPage();
+
+    /** @hidden */
+    public static final long serialVersionUID = -1052871458L;
+}
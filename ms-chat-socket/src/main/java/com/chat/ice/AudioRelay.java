@@ -0,0 +1,189 @@
+package com.chat.ice;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Etapa de relay para audio en vivo.
+ * - Cada stream se asigna a un "carril" (un hilo) por hash de streamId, así su estado
+ *   se toca desde un solo hilo y no necesita locks.
+ * - Ventana de reordenamiento por índice: los chunks se reenvían en orden.
+ * - Los chunks pequeños se agrupan en frames hasta maxFrameBytes o maxFrameDelayMs.
+ * - Todo stream termina con un frame last=true: si el timer ya vació la cola, end() manda
+ *   un frame vacío como marca de fin.
+ * El hilo de dispatch de ICE solo encola y retorna.
+ */
+public class AudioRelay {
+
+    /** Recibe los frames ya ordenados y agrupados (siempre desde el carril del stream). */
+    public interface Sink {
+        void onFrame(String streamId, int frameIndex, boolean last, byte[] frame);
+    }
+
+    // Estado por stream; solo lo toca el hilo de su carril
+    private static class StreamState {
+        final TreeMap<Integer, byte[]> pending = new TreeMap<>();
+        final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int nextIndex;
+        int frameIndex;
+        int total = -1;
+        long frameGeneration;
+        boolean lastSent;
+    }
+
+    private final ScheduledExecutorService[] lanes;
+    private final List<Map<String, StreamState>> states;
+    private final int maxFrameBytes;
+    private final long maxFrameDelayMs;
+    private final int reorderWindow;
+    private final Sink sink;
+
+    private final AtomicLong chunksIn = new AtomicLong();
+    private final AtomicLong framesOut = new AtomicLong();
+    private final AtomicLong lateDropped = new AtomicLong();
+    private final AtomicLong gapsSkipped = new AtomicLong();
+    private final AtomicLong endMarkers = new AtomicLong();
+
+    public AudioRelay(int threads, int maxFrameBytes, long maxFrameDelayMs, int reorderWindow, Sink sink) {
+        int n = Math.max(1, threads);
+        this.lanes = new ScheduledExecutorService[n];
+        this.states = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String name = "AudioRelay-" + i;
+            lanes[i] = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+            states.add(new HashMap<>());
+        }
+        this.maxFrameBytes = Math.max(1, maxFrameBytes);
+        this.maxFrameDelayMs = maxFrameDelayMs;
+        this.reorderWindow = Math.max(1, reorderWindow);
+        this.sink = sink;
+    }
+
+    private int laneOf(String streamId) {
+        return Math.floorMod(streamId.hashCode(), lanes.length);
+    }
+
+    // ----- API (llamadas desde el dispatch de ICE) -----
+
+    public void chunk(String streamId, int index, int total, byte[] data) {
+        chunksIn.incrementAndGet();
+        int lane = laneOf(streamId);
+        lanes[lane].execute(() -> onChunk(lane, streamId, index, total, data));
+    }
+
+    /** Vacía lo pendiente del stream y luego ejecuta onEnd en el mismo carril (después del último frame). */
+    public void end(String streamId, Runnable onEnd) {
+        int lane = laneOf(streamId);
+        lanes[lane].execute(() -> {
+            StreamState st = states.get(lane).remove(streamId);
+            if (st != null) {
+                // Lo que quede en la ventana se emite en orden, aunque falten índices
+                st.pending.values().forEach(d -> st.frame.writeBytes(d));
+                st.pending.clear();
+                flush(streamId, st, true);
+            }
+            onEnd.run();
+        });
+    }
+
+    /** Descarta el estado del stream sin emitir nada (stream abandonado). */
+    public void discard(String streamId) {
+        int lane = laneOf(streamId);
+        lanes[lane].execute(() -> states.get(lane).remove(streamId));
+    }
+
+    public void shutdown() {
+        for (ScheduledExecutorService lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    // ----- lógica del carril -----
+
+    private void onChunk(int lane, String streamId, int index, int total, byte[] data) {
+        StreamState st = states.get(lane).computeIfAbsent(streamId, k -> new StreamState());
+        st.total = total;
+
+        if (index < st.nextIndex) {
+            lateDropped.incrementAndGet();
+            return;
+        }
+        st.pending.put(index, data);
+
+        // Si la ventana se desborda, se salta el hueco más antiguo
+        if (st.pending.size() > reorderWindow && !st.pending.containsKey(st.nextIndex)) {
+            st.nextIndex = st.pending.firstKey();
+            gapsSkipped.incrementAndGet();
+        }
+
+        byte[] next;
+        while ((next = st.pending.remove(st.nextIndex)) != null) {
+            boolean wasEmpty = st.frame.size() == 0;
+            st.frame.writeBytes(next);
+            boolean last = st.total > 0 && st.nextIndex == st.total - 1;
+            st.nextIndex++;
+
+            if (last || st.frame.size() >= maxFrameBytes) {
+                flush(streamId, st, last);
+            } else if (wasEmpty) {
+                scheduleFlush(lane, streamId, st);
+            }
+        }
+    }
+
+    private void scheduleFlush(int lane, String streamId, StreamState st) {
+        long generation = st.frameGeneration;
+        lanes[lane].schedule(() -> {
+            // Solo si el frame sigue siendo el mismo y el stream sigue vivo
+            if (states.get(lane).get(streamId) == st && st.frameGeneration == generation) {
+                flush(streamId, st, false);
+            }
+        }, maxFrameDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(String streamId, StreamState st, boolean last) {
+        st.frameGeneration++;
+        if (st.frame.size() == 0) {
+            if (!last || st.lastSent) {
+                return;
+            }
+            // La cola ya salió por el timer: el fin va en un frame vacío
+            endMarkers.incrementAndGet();
+        }
+        byte[] frame = st.frame.toByteArray();
+        st.frame.reset();
+        st.lastSent = last;
+        framesOut.incrementAndGet();
+        try {
+            sink.onFrame(streamId, st.frameIndex++, last, frame);
+        } catch (Exception e) {
+            System.out.println("[ICE] error en relay de audio " + streamId + ": " + e.getMessage());
+        }
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("lanes", lanes.length);
+        out.put("chunksIn", chunksIn.get());
+        out.put("framesOut", framesOut.get());
+        out.put("lateDropped", lateDropped.get());
+        out.put("gapsSkipped", gapsSkipped.get());
+        out.put("endMarkers", endMarkers.get());
+        return out;
+    }
+}
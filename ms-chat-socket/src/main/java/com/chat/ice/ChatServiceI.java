@@ -1,10 +1,21 @@
 package com.chat.ice;
 
 import chat.*;
+import com.chat.socket.concurrent.LaneExecutor;
+import com.chat.socket.service.MediaStore;
+import com.chat.socket.store.MessageLog;
+import com.chat.socket.store.HistoryCache;
+import com.chat.socket.store.MessageStore;
 import com.zeroc.Ice.Current;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementación del servicio ICE que usa almacenamiento en memoria.
@@ -12,12 +23,22 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ChatServiceI implements ChatService {
 
-    // Callbacks registrados: userId -> proxy del cliente
-    private final Map<String, ChatClientPrx> clients = new ConcurrentHashMap<>();
+    // Clave del contexto ICE con el id que el cliente le pone a su mensaje (sendText idempotente)
+    public static final String CLIENT_MSG_ID = "clientMsgId";
 
-    // Historial en memoria
-    private final Map<String, List<Message>> groupHistory = new ConcurrentHashMap<>();
-    private final Map<String, List<Message>> userHistory  = new ConcurrentHashMap<>();
+    private final IceSettings settings;
+
+    // Historial compartido con el adaptador TCP y STOMP (persistido en el MessageLog)
+    private final MessageStore store;
+
+    // uploads/ (servido en /media/): ahí quedan las notas de voz terminadas
+    private final MediaStore media;
+
+    // Clientes registrados: userId -> cola de salida hacia su proxy
+    private final Map<String, ClientOutbox> clients = new ConcurrentHashMap<>();
+
+    // Índice de ruteo: groupId -> miembros (userIds)
+    private final Map<String, Set<String>> groupMembers = new ConcurrentHashMap<>();
 
     // Buffer de streams de audio
     private static class AudioBuffer {
@@ -25,34 +46,151 @@ public class ChatServiceI implements ChatService {
         final String to;
         final String fromUser;
         final String mimeType;
-        final List<byte[]> parts = new ArrayList<>();
-        int total = -1;
+        final DirectBufferPool pool;
 
-        AudioBuffer(String toType, String to, String fromUser, String mimeType) {
+        // Frames ya ordenados, copiados a slabs directos del pool; al terminar el stream se
+        // escriben tal cual a uploads/ y el mensaje de audio queda con su URL
+        private final List<ByteBuffer> slabs = new ArrayList<>();
+        private long size;
+        private boolean truncated;
+        private boolean released;
+
+        // Para el reaper: edad e inactividad del stream
+        final long createdAt = System.currentTimeMillis();
+        volatile long lastActivity = createdAt;
+
+        AudioBuffer(String toType, String to, String fromUser, String mimeType, DirectBufferPool pool) {
             this.toType = toType;
             this.to = to;
             this.fromUser = fromUser;
             this.mimeType = mimeType;
+            this.pool = pool;
+        }
+
+        synchronized void append(byte[] data) {
+            if (released) {
+                return;
+            }
+            int off = 0;
+            while (off < data.length && !truncated) {
+                ByteBuffer tail = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+                if (tail == null || !tail.hasRemaining()) {
+                    tail = pool.acquire();
+                    if (tail == null) {
+                        // Sin presupuesto: se sigue reenviando en vivo pero ya no se guarda
+                        truncated = true;
+                        System.out.println("[ICE] pool de audio agotado, stream truncado from=" + fromUser);
+                        return;
+                    }
+                    slabs.add(tail);
+                }
+                int n = Math.min(tail.remaining(), data.length - off);
+                tail.put(data, off, n);
+                off += n;
+                size += n;
+            }
+        }
+
+        // Vistas de solo lectura de lo guardado, en orden; null si no hay nada o se truncó
+        synchronized ByteBuffer[] contents() {
+            if (released || truncated || size == 0) {
+                return null;
+            }
+            ByteBuffer[] out = new ByteBuffer[slabs.size()];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = slabs.get(i).duplicate().flip().asReadOnlyBuffer();
+            }
+            return out;
+        }
+
+        // Devuelve los slabs al pool; idempotente
+        synchronized void release() {
+            released = true;
+            slabs.forEach(pool::release);
+            slabs.clear();
         }
     }
 
     private final Map<String, AudioBuffer> streams = new ConcurrentHashMap<>();
 
+    // Slabs directos reutilizables para el audio en vuelo
+    private final DirectBufferPool audioPool;
+
+    // Carriles por conversación: los mensajes de una conversación se reenvían en el orden en que se guardaron
+    private final LaneExecutor conversations;
+
+    // getHistory completo por (conversación, versión): el mismo Message[] mientras no cambie
+    private final HistoryCache<Message[]> historyCache;
+
+    // Reordena, agrupa y reenvía los chunks de audio fuera del hilo de dispatch
+    private final AudioRelay relay;
+
+    // Barrido periódico de streams abandonados
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "AudioReaper");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong streamsExpired = new AtomicLong();
+    private final AtomicLong duplicateSends = new AtomicLong();
+    private final AtomicLong broadcastFallbacks = new AtomicLong();
+    private final AtomicLong streamsEvicted = new AtomicLong();
+    private final AtomicLong streamsRejected = new AtomicLong();
+    private final AtomicLong audioSaved = new AtomicLong();
+    private final AtomicLong clientsDisconnected = new AtomicLong();
+
+    public ChatServiceI(IceSettings settings, MessageStore store, MediaStore media) {
+        this.settings = settings;
+        this.store = store;
+        this.media = media;
+        this.conversations = new LaneExecutor("IceConversation", settings.getConversationLanes());
+        this.historyCache = new HistoryCache<>(settings.getHistoryCacheBytes(), ChatServiceI::estimatedBytes);
+        this.audioPool = new DirectBufferPool(settings.getAudioPoolSlabBytes(), settings.getAudioPoolMaxBytes());
+        this.relay = new AudioRelay(
+                settings.getRelayThreads(),
+                settings.getRelayMaxFrameBytes(),
+                settings.getRelayMaxFrameDelayMs(),
+                settings.getRelayReorderWindow(),
+                this::forwardFrame
+        );
+
+        long every = settings.getAudioSweepIntervalMs();
+        reaper.scheduleWithFixedDelay(this::sweepStreams, every, every, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     public void registerClient(String userId, ChatClientPrx cb, Current current) {
-        clients.put(userId, cb);
+        ClientOutbox outbox = new ClientOutbox(
+                userId,
+                cb,
+                settings.getOutboxCapacity(),
+                settings.getOutboxOverflow(),
+                settings.getOutboxBlockTimeoutMs(),
+                this::disconnect
+        );
+        ClientOutbox previous = clients.put(userId, outbox);
+        if (previous != null) {
+            previous.close();
+        }
         System.out.println("[ICE] registerClient user=" + userId);
     }
 
     @Override
     public void unregisterClient(String userId, Current current) {
-        clients.remove(userId);
+        ClientOutbox outbox = clients.remove(userId);
+        if (outbox != null) {
+            outbox.close();
+        }
         System.out.println("[ICE] unregisterClient user=" + userId);
     }
 
     @Override
     public String createGroup(String name, String[] members, Current current) {
-        groupHistory.putIfAbsent(name, Collections.synchronizedList(new ArrayList<>()));
+        store.ensureConversation(MessageStore.GROUP, name);
+        Set<String> set = groupMembers.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet());
+        if (members != null) {
+            set.addAll(Arrays.asList(members));
+        }
         System.out.println("[ICE] createGroup " + name + " members=" + Arrays.toString(members));
         return name;
     }
@@ -61,8 +199,21 @@ public class ChatServiceI implements ChatService {
     public void sendText(String toType, String to, String fromUser, String text, Current current) {
         String scope = "group".equalsIgnoreCase(toType) ? "group" : "user";
 
+        // Id opcional del cliente en el contexto ICE: un reintento (p. ej. tras un timeout del
+        // proxy) se da por hecho sin guardarlo ni reenviarlo otra vez
+        String clientMsgId = current.ctx != null ? current.ctx.get(CLIENT_MSG_ID) : null;
+        boolean claimed = clientMsgId != null && !clientMsgId.isEmpty();
+        if (claimed) {
+            if (!store.claim(fromUser, clientMsgId)) {
+                duplicateSends.incrementAndGet();
+                return;
+            }
+        } else {
+            clientMsgId = UUID.randomUUID().toString();
+        }
+
         Message msg = new Message(
-                UUID.randomUUID().toString(),
+                clientMsgId,
                 fromUser,
                 to,
                 scope,
@@ -74,25 +225,70 @@ public class ChatServiceI implements ChatService {
                 0.0
         );
 
-        storeMessage(msg);
-        broadcastMessage(msg);
+        // Se guarda en el hilo de dispatch (si el store falla, el cliente recibe la excepción) y
+        // el reenvío queda en el carril de la conversación, en el mismo orden que el store. El
+        // store corre sin lock: solo espera a un sendText anterior de la misma conversación
+        try {
+            conversations.executeAfter(conversationKey(scope, to), () -> storeMessage(msg, claimed),
+                    () -> broadcastMessage(msg));
+        } catch (RuntimeException e) {
+            // No quedó guardado: el reintento con el mismo id tiene que poder pasar
+            if (claimed) {
+                store.release(fromUser, clientMsgId);
+            }
+            throw e;
+        }
     }
 
+    // Las lecturas van directo al store (no esperan detrás de los reenvíos del carril):
+    // ven todo lo que un sendText ya devolvió
     @Override
     public Message[] getHistory(String scope, String id, Current current) {
-        List<Message> list;
-        if ("group".equalsIgnoreCase(scope)) {
-            list = groupHistory.getOrDefault(id, List.of());
-        } else {
-            list = userHistory.getOrDefault(id, List.of());
+        String key = conversationKey(scope, id);
+        int version = store.version(scope, id);
+        return historyCache.get(key, version, () -> store.history(scope, id, version));
+    }
+
+    // Peso aproximado de un historial en el cache (cadenas en UTF-16 + cabeceras de objeto)
+    private static int estimatedBytes(Message[] ms) {
+        long total = 16L + 4L * ms.length;
+        for (Message m : ms) {
+            total += 64 + 2L * (len(m.id) + len(m.from) + len(m.to) + len(m.scope)
+                    + len(m.text) + len(m.audioUrl) + len(m.mimeType));
         }
-        return list.toArray(Message[]::new);
+        return (int) Math.min(Integer.MAX_VALUE, total);
+    }
+
+    private static int len(String s) {
+        return s != null ? s.length() : 0;
+    }
+
+    // El cursor es la posición del mensaje en la conversación: el acceso por índice
+    // hace que cada página cueste O(limit) y no O(tamaño de la conversación).
+    @Override
+    public HistoryPage getHistoryPage(String scope, String id, long beforeCursor, int limit, Current current) {
+        return store.page(scope, id, beforeCursor, pageSize(limit));
     }
 
     @Override
-    public String beginAudio(String toType, String to, String fromUser, String mimeType, Current current) {
+    public HistoryPage getHistorySince(String scope, String id, long afterCursor, int limit, Current current) {
+        return store.since(scope, id, afterCursor, pageSize(limit));
+    }
+
+    @Override
+    public String beginAudio(String toType, String to, String fromUser, String mimeType, Current current)
+            throws AudioRejected {
+        if (overAudioBudget()) {
+            if (settings.getAudioBudgetPolicy() == IceSettings.AudioBudgetPolicy.EVICT_OLDEST) {
+                evictOldestWhileOverBudget();
+            } else {
+                streamsRejected.incrementAndGet();
+                System.out.println("[ICE] beginAudio rechazado: presupuesto de audio excedido from=" + fromUser);
+                throw new AudioRejected("audio_budget_exceeded");
+            }
+        }
         String sid = UUID.randomUUID().toString();
-        streams.put(sid, new AudioBuffer(toType, to, fromUser, mimeType));
+        streams.put(sid, new AudioBuffer(toType, to, fromUser, mimeType, audioPool));
         System.out.println("[ICE] beginAudio streamId=" + sid + " from=" + fromUser + " to=" + to);
         return sid;
     }
@@ -104,83 +300,239 @@ public class ChatServiceI implements ChatService {
             System.out.println("[ICE] sendAudioChunk: stream no encontrado " + streamId);
             return;
         }
-        buf.total = total;
+        buf.lastActivity = System.currentTimeMillis();
+        // Orden, agrupación y fan-out ocurren en el carril del relay; el dispatch retorna ya
+        relay.chunk(streamId, index, total, data);
+    }
+
+    @Override
+    public void endAudio(String streamId, double duration, Current current) {
+        if (!streams.containsKey(streamId)) {
+            System.out.println("[ICE] endAudio: stream no encontrado " + streamId);
+            return;
+        }
+        // El cierre pasa por el relay para que onAudioEnd llegue después del último frame
+        relay.end(streamId, () -> finishAudio(streamId, duration));
+    }
+
+    public void shutdown() {
+        reaper.shutdownNow();
+        conversations.shutdown();
+        relay.shutdown();
+        streams.values().forEach(AudioBuffer::release);
+        streams.clear();
+    }
+
+    // ----- helpers -----
+
+    private int pageSize(int limit) {
+        int max = settings.getHistoryMaxPageSize();
+        return limit <= 0 ? max : Math.min(limit, max);
+    }
 
-        // Aseguramos tamaño de la lista
-        while (buf.parts.size() <= index) {
-            buf.parts.add(null);
+    // ----- expiración de streams -----
+
+    private boolean overAudioBudget() {
+        return audioPool.bytesInUse() >= settings.getAudioMaxBufferedBytes();
+    }
+
+    private void sweepStreams() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, AudioBuffer> e : streams.entrySet()) {
+                AudioBuffer buf = e.getValue();
+                boolean idle = now - buf.lastActivity > settings.getAudioIdleTimeoutMs();
+                boolean old = now - buf.createdAt > settings.getAudioMaxAgeMs();
+                if ((idle || old) && discardStream(e.getKey(), buf)) {
+                    streamsExpired.incrementAndGet();
+                    System.out.println("[ICE] stream expirado " + e.getKey() + (idle ? " (inactivo)" : " (edad máxima)"));
+                }
+            }
+            if (settings.getAudioBudgetPolicy() == IceSettings.AudioBudgetPolicy.EVICT_OLDEST) {
+                evictOldestWhileOverBudget();
+            }
+        } catch (Exception e) {
+            System.out.println("[ICE] error en barrido de streams: " + e.getMessage());
         }
-        buf.parts.set(index, data);
+    }
 
-        // Enviar chunk en tiempo real a todos los clientes
-        for (ChatClientPrx cb : clients.values()) {
-            try {
-                cb.onAudioChunk(streamId, index, total, data, buf.mimeType);
-            } catch (Exception e) {
-                System.out.println("[ICE] error onAudioChunk: " + e.getMessage());
+    private void evictOldestWhileOverBudget() {
+        while (overAudioBudget()) {
+            Map.Entry<String, AudioBuffer> oldest = null;
+            for (Map.Entry<String, AudioBuffer> e : streams.entrySet()) {
+                if (oldest == null || e.getValue().createdAt < oldest.getValue().createdAt) {
+                    oldest = e;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            if (discardStream(oldest.getKey(), oldest.getValue())) {
+                streamsEvicted.incrementAndGet();
+                System.out.println("[ICE] stream desalojado por presupuesto " + oldest.getKey());
             }
         }
     }
 
-    @Override
-    public void endAudio(String streamId, double duration, Current current) {
+    // Quita el stream sin generar mensaje; libera sus slabs y el estado del relay
+    private boolean discardStream(String streamId, AudioBuffer buf) {
+        if (!streams.remove(streamId, buf)) {
+            return false;
+        }
+        relay.discard(streamId);
+        buf.release();
+        return true;
+    }
+
+    // Frame ordenado y agrupado por el relay: se guarda y se envía a los participantes
+    private void forwardFrame(String streamId, int frameIndex, boolean last, byte[] frame) {
+        AudioBuffer buf = streams.get(streamId);
+        if (buf == null) {
+            // Chunk tardío de un stream ya expirado: no dejar estado colgado en el relay
+            relay.discard(streamId);
+            return;
+        }
+        buf.append(frame);
+
+        int total = last ? frameIndex + 1 : -1;
+        for (ClientOutbox out : outboxesFor(buf.toType, buf.to, buf.fromUser)) {
+            out.offerAudioChunk(streamId, frameIndex, total, frame, buf.mimeType);
+        }
+    }
+
+    private void finishAudio(String streamId, double duration) {
         AudioBuffer buf = streams.remove(streamId);
         if (buf == null) {
-            System.out.println("[ICE] endAudio: stream no encontrado " + streamId);
             return;
         }
 
         String scope = "group".equalsIgnoreCase(buf.toType) ? "group" : "user";
 
-        // Guardamos un mensaje de tipo AUDIO en el historial
-        Message msg = new Message(
-                UUID.randomUUID().toString(),
-                buf.fromUser,
-                buf.to,
-                scope,
-                MessageType.AUDIO,
-                "",
-                "", // aquí podrías poner una URL si decides guardar el archivo real
-                System.currentTimeMillis(),
-                buf.mimeType,
-                duration
-        );
-        storeMessage(msg);
-
-        // Notificar fin de audio
-        for (ChatClientPrx cb : clients.values()) {
-            try {
-                cb.onAudioEnd(streamId, buf.to, buf.fromUser, buf.mimeType, duration);
-            } catch (Exception e) {
-                System.out.println("[ICE] error onAudioEnd: " + e.getMessage());
+        // Notificar fin de audio (desde el carril del relay, después del último frame)
+        for (ClientOutbox out : outboxesFor(buf.toType, buf.to, buf.fromUser)) {
+            out.offerAudioEnd(streamId, buf.to, buf.fromUser, buf.mimeType, duration);
+        }
+
+        // El archivo se escribe en el carril de la conversación, fuera del carril del relay
+        conversations.execute(conversationKey(scope, buf.to), () -> {
+            // Guardamos un mensaje de tipo AUDIO en el historial, con la URL del archivo
+            Message msg = new Message(
+                    UUID.randomUUID().toString(),
+                    buf.fromUser,
+                    buf.to,
+                    scope,
+                    MessageType.AUDIO,
+                    "",
+                    saveAudio(streamId, buf),
+                    System.currentTimeMillis(),
+                    buf.mimeType,
+                    duration
+            );
+            storeMessage(msg, false);
+            broadcastMessage(msg);
+        });
+    }
+
+    // Vuelca los slabs a uploads/ directo desde los buffers y los devuelve al pool; "" si no se pudo
+    private String saveAudio(String streamId, AudioBuffer buf) {
+        try {
+            ByteBuffer[] contents = buf.contents();
+            if (contents == null) {
+                return "";
             }
+            String url = MediaStore.urlOf(media.save(contents, MediaStore.extensionOf(buf.mimeType)));
+            audioSaved.incrementAndGet();
+            return url;
+        } catch (IOException e) {
+            System.out.println("[ICE] no se pudo guardar el audio " + streamId + ": " + e.getMessage());
+            return "";
+        } finally {
+            buf.release();
         }
+    }
 
-        // Opcional: también podemos notificar el mensaje como tal
-        broadcastMessage(msg);
+    // clientId: el id lo puso el cliente (se recuerda para dedup después de reiniciar)
+    private void storeMessage(Message m, boolean clientId) {
+        store.append(MessageLog.source(MessageLog.SOURCE_ICE, clientId), m);
     }
 
-    // ----- helpers -----
+    private static String conversationKey(String scope, String id) {
+        return MessageStore.scopeOf(scope) + ":" + id;
+    }
 
-    private void storeMessage(Message m) {
-        if ("group".equalsIgnoreCase(m.scope)) {
-            groupHistory
-                    .computeIfAbsent(m.to, k -> Collections.synchronizedList(new ArrayList<>()))
-                    .add(m);
+    /**
+     * Destinatarios de una conversación: los miembros del grupo o los dos
+     * participantes del DM. El remitente siempre se incluye (eco).
+     * null = grupo sin miembros conocidos (creado por TCP o solo como sala STOMP).
+     */
+    private Set<String> recipients(String scope, String to, String fromUser) {
+        Set<String> out = new HashSet<>();
+        if ("group".equalsIgnoreCase(scope)) {
+            Set<String> members = groupMembers.get(to);
+            if (members == null) {
+                return null;
+            }
+            out.addAll(members);
         } else {
-            userHistory
-                    .computeIfAbsent(m.to, k -> Collections.synchronizedList(new ArrayList<>()))
-                    .add(m);
+            out.add(to);
         }
+        out.add(fromUser);
+        return out;
     }
 
-    private void broadcastMessage(Message m) {
-        for (ChatClientPrx cb : clients.values()) {
-            try {
-                cb.onMessage(m);
-            } catch (Exception e) {
-                System.out.println("[ICE] error onMessage: " + e.getMessage());
+    // Resuelve las colas de los destinatarios registrados (O(miembros), no O(clientes));
+    // un grupo que no pasó por createGroup de ICE se reparte a todos, como antes del índice
+    private List<ClientOutbox> outboxesFor(String scope, String to, String fromUser) {
+        Set<String> recipients = recipients(scope, to, fromUser);
+        if (recipients == null) {
+            broadcastFallbacks.incrementAndGet();
+            return new ArrayList<>(clients.values());
+        }
+        List<ClientOutbox> out = new ArrayList<>();
+        for (String userId : recipients) {
+            ClientOutbox outbox = clients.get(userId);
+            if (outbox != null) {
+                out.add(outbox);
             }
         }
+        return out;
+    }
+
+    private void broadcastMessage(Message m) {
+        for (ClientOutbox out : outboxesFor(m.scope, m.to, m.from)) {
+            out.offerMessage(m);
+        }
+    }
+
+    // Política DISCONNECT: se quita al cliente solo si sigue siendo la misma cola (la conexión
+    // la cierra el outbox)
+    private void disconnect(ClientOutbox outbox) {
+        if (clients.remove(outbox.getUserId(), outbox)) {
+            clientsDisconnected.incrementAndGet();
+        }
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        Map<String, Object> outboxes = new TreeMap<>();
+        clients.forEach((userId, outbox) -> outboxes.put(userId, outbox.stats()));
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("clients", clients.size());
+        out.put("clientsDisconnected", clientsDisconnected.get());
+        out.put("outboxes", outboxes);
+        out.put("conversationLanes", conversations.stats());
+        out.put("historyCache", historyCache.stats());
+        out.put("audioRelay", relay.stats());
+        out.put("audioStreams", streams.size());
+        out.put("audioStreamsExpired", streamsExpired.get());
+        out.put("duplicateSends", duplicateSends.get());
+        out.put("broadcastFallbacks", broadcastFallbacks.get());
+        out.put("audioStreamsEvicted", streamsEvicted.get());
+        out.put("audioStreamsRejected", streamsRejected.get());
+        out.put("audioStreamsSaved", audioSaved.get());
+        out.put("audioPool", audioPool.stats());
+        return out;
     }
 }
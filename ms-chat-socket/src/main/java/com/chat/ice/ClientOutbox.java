@@ -0,0 +1,260 @@
+package com.chat.ice;
+
+import chat.ChatClientPrx;
+import chat.Message;
+import com.zeroc.Ice.Connection;
+import com.zeroc.Ice.ConnectionClose;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Cola de salida acotada por cliente ICE.
+ * - El hilo de dispatch solo encola y retorna; el envío real usa los métodos *Async del proxy.
+ * - Se mantiene UNA invocación en vuelo por cliente para conservar el orden.
+ * - Si la cola se llena se aplica la política de overflow configurada.
+ */
+public class ClientOutbox {
+
+    public enum OverflowPolicy {
+        /** Descarta el chunk de audio más antiguo en cola (o el elemento más antiguo si no hay audio). */
+        DROP_OLDEST_AUDIO,
+        /** Desconecta al cliente lento: vacía su cola y cierra su conexión ICE. */
+        DISCONNECT,
+        /**
+         * Bloquea al emisor hasta que haya espacio (con timeout). El emisor es un carril
+         * compartido (conversación o relay de audio): mientras espera, todo lo demás de ese
+         * carril espera también. Solo para despliegues chicos o pruebas.
+         */
+        BLOCK
+    }
+
+    // Una entrega pendiente hacia el cliente
+    private interface Delivery {
+        CompletableFuture<Void> send(ChatClientPrx cb);
+
+        default boolean isAudioChunk() {
+            return false;
+        }
+    }
+
+    private final String userId;
+    private final ChatClientPrx cb;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMs;
+    private final Consumer<ClientOutbox> onDisconnect;
+
+    // Protegidos por "this"
+    private final ArrayDeque<Delivery> queue = new ArrayDeque<>();
+    private boolean draining;
+    private boolean closed;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+
+    public ClientOutbox(String userId, ChatClientPrx cb, int capacity, OverflowPolicy policy,
+                        long blockTimeoutMs, Consumer<ClientOutbox> onDisconnect) {
+        this.userId = userId;
+        this.cb = cb;
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.onDisconnect = onDisconnect;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    // ----- encolado -----
+
+    public boolean offerMessage(Message m) {
+        return offer(c -> c.onMessageAsync(m));
+    }
+
+    public boolean offerAudioChunk(String streamId, int index, int total, byte[] data, String mimeType) {
+        return offer(new Delivery() {
+            @Override
+            public CompletableFuture<Void> send(ChatClientPrx c) {
+                return c.onAudioChunkAsync(streamId, index, total, data, mimeType);
+            }
+
+            @Override
+            public boolean isAudioChunk() {
+                return true;
+            }
+        });
+    }
+
+    public boolean offerAudioEnd(String streamId, String to, String from, String mimeType, double duration) {
+        return offer(c -> c.onAudioEndAsync(streamId, to, from, mimeType, duration));
+    }
+
+    private boolean offer(Delivery d) {
+        boolean disconnect = false;
+        boolean startDrain = false;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (queue.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST_AUDIO:
+                        dropOldest();
+                        break;
+                    case DISCONNECT:
+                        closed = true;
+                        dropped.addAndGet(queue.size() + 1);
+                        queue.clear();
+                        disconnect = true;
+                        break;
+                    case BLOCK:
+                        if (!awaitSpace()) {
+                            dropped.incrementAndGet();
+                            return false;
+                        }
+                        break;
+                }
+            }
+            if (!disconnect) {
+                queue.add(d);
+                if (!draining) {
+                    draining = true;
+                    startDrain = true;
+                }
+            }
+        }
+        if (disconnect) {
+            System.out.println("[ICE] outbox lleno, desconectando user=" + userId);
+            disconnects.incrementAndGet();
+            onDisconnect.accept(this);
+            closeConnection();
+            return false;
+        }
+        if (startDrain) {
+            drain();
+        }
+        return true;
+    }
+
+    // Llamar con el lock tomado
+    private void dropOldest() {
+        for (Iterator<Delivery> it = queue.iterator(); it.hasNext(); ) {
+            if (it.next().isAudioChunk()) {
+                it.remove();
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+        queue.poll();
+        dropped.incrementAndGet();
+    }
+
+    // Llamar con el lock tomado
+    private boolean awaitSpace() {
+        long deadline = System.currentTimeMillis() + blockTimeoutMs;
+        try {
+            while (queue.size() >= capacity && !closed) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !closed;
+    }
+
+    // ----- envío -----
+
+    private void drain() {
+        while (true) {
+            Delivery d;
+            synchronized (this) {
+                d = queue.poll();
+                if (d == null) {
+                    draining = false;
+                    return;
+                }
+                notifyAll();
+            }
+
+            CompletableFuture<Void> f;
+            try {
+                f = d.send(cb);
+            } catch (Exception e) {
+                record(e);
+                continue;
+            }
+
+            if (f.isDone()) {
+                record(f.handle((r, ex) -> ex).join());
+                continue;
+            }
+            // Se continúa desde el hilo que completa la invocación
+            f.whenComplete((r, ex) -> {
+                record(ex);
+                drain();
+            });
+            return;
+        }
+    }
+
+    private void record(Throwable ex) {
+        if (ex == null) {
+            sent.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+            System.out.println("[ICE] error entregando a " + userId + ": " + ex.getMessage());
+        }
+    }
+
+    // Cierra la conexión del callback (la del cliente, si es bidireccional) sin esperar a las
+    // invocaciones en vuelo: el cliente se entera y puede volver a registrarse
+    private void closeConnection() {
+        try {
+            Connection con = cb.ice_getCachedConnection();
+            if (con != null) {
+                con.close(ConnectionClose.Gracefully);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("[ICE] no se pudo cerrar la conexión de " + userId + ": " + e.getMessage());
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            notifyAll();
+        }
+    }
+
+    // ----- métricas -----
+
+    public synchronized int depth() {
+        return queue.size();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("depth", depth());
+        out.put("capacity", capacity);
+        out.put("sent", sent.get());
+        out.put("dropped", dropped.get());
+        out.put("failed", failed.get());
+        out.put("disconnects", disconnects.get());
+        return out;
+    }
+}
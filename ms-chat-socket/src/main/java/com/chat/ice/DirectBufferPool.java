@@ -0,0 +1,87 @@
+package com.chat.ice;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool de slabs directos (fuera del heap) de tamaño fijo para guardar audio en vuelo.
+ * - Los slabs se reutilizan: acquire() toma uno libre o crea uno nuevo si hay presupuesto.
+ * - El total reservado nunca supera maxBytes; si se agota, acquire() devuelve null.
+ */
+public class DirectBufferPool {
+
+    private final int slabBytes;
+    private final int maxSlabs;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    public DirectBufferPool(int slabBytes, long maxBytes) {
+        this.slabBytes = Math.max(1024, slabBytes);
+        this.maxSlabs = (int) Math.max(1, maxBytes / this.slabBytes);
+    }
+
+    public int slabBytes() {
+        return slabBytes;
+    }
+
+    /** Slab vacío listo para escribir, o null si se agotó el presupuesto. */
+    public ByteBuffer acquire() {
+        ByteBuffer b = free.poll();
+        if (b != null) {
+            hits.incrementAndGet();
+            inUse.incrementAndGet();
+            return b;
+        }
+        // Reserva un cupo antes de crear el slab para no pasarse del presupuesto
+        int n;
+        do {
+            n = allocated.get();
+            if (n >= maxSlabs) {
+                exhausted.incrementAndGet();
+                return null;
+            }
+        } while (!allocated.compareAndSet(n, n + 1));
+
+        misses.incrementAndGet();
+        inUse.incrementAndGet();
+        return ByteBuffer.allocateDirect(slabBytes);
+    }
+
+    public void release(ByteBuffer b) {
+        b.clear();
+        inUse.decrementAndGet();
+        free.offer(b);
+    }
+
+    public long bytesInUse() {
+        return (long) inUse.get() * slabBytes;
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("slabBytes", slabBytes);
+        out.put("maxSlabs", maxSlabs);
+        out.put("allocatedSlabs", allocated.get());
+        out.put("inUseSlabs", inUse.get());
+        out.put("bytesInUse", bytesInUse());
+        out.put("hits", h);
+        out.put("misses", m);
+        out.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        out.put("exhausted", exhausted.get());
+        return out;
+    }
+}
@@ -1,13 +1,26 @@
 package com.chat.ice;
 
-import chat.ChatService;
+import com.chat.socket.concurrent.LaneExecutor;
+import com.chat.socket.service.MediaStore;
+import com.chat.socket.store.MessageStore;
 import com.zeroc.Ice.*;
 
 import java.lang.Exception;
 
 public class IceServer {
 
+    private final IceSettings settings;
+    private final MessageStore store;
+    private final MediaStore media;
     private Communicator communicator;
+    private ChatServiceI servant;
+    private LaneExecutor dispatchLanes;
+
+    public IceServer(IceSettings settings, MessageStore store, MediaStore media) {
+        this.settings = settings;
+        this.store = store;
+        this.media = media;
+    }
 
     public void start() {
         try {
@@ -15,6 +28,21 @@ public class IceServer {
             initData.properties = Util.createProperties();
             // aumentar tamaño máximo por temas de audio
             initData.properties.setProperty("Ice.MessageSizeMax", "20480");
+            // Pool de hilos del servidor
+            initData.properties.setProperty("Ice.ThreadPool.Server.Size", String.valueOf(settings.getServerThreads()));
+            initData.properties.setProperty("Ice.ThreadPool.Server.SizeMax", String.valueOf(settings.getServerThreadsMax()));
+
+            // Las invocaciones de una misma conexión se despachan en orden en su carril;
+            // conexiones distintas se reparten entre los carriles en paralelo. Los envíos a
+            // clientes nunca corren acá (van por las colas de salida), así que BLOCK no frena
+            // el dispatch; sí frena los carriles que encolan, por eso se avisa.
+            if (settings.getOutboxOverflow() == ClientOutbox.OverflowPolicy.BLOCK) {
+                System.out.println("[ICE] outbox-overflow=BLOCK: un cliente lento frena los carriles de conversación y del relay hasta "
+                        + settings.getOutboxBlockTimeoutMs() + " ms");
+            }
+            dispatchLanes = new LaneExecutor("IceDispatch", settings.getDispatchLanes());
+            initData.dispatcher = (call, connection) ->
+                    dispatchLanes.execute(connection != null ? connection : call, call);
 
             communicator = Util.initialize(initData);
 
@@ -24,7 +52,7 @@ public class IceServer {
                     "ws -p 10000 -h 0.0.0.0"
             );
 
-            ChatService servant = new ChatServiceI();
+            servant = new ChatServiceI(settings, store, media);
             adapter.add(servant, Util.stringToIdentity("ChatService"));
 
             adapter.activate();
@@ -36,9 +64,23 @@ public class IceServer {
         }
     }
 
+    public LaneExecutor getDispatchLanes() {
+        return dispatchLanes;
+    }
+
+    public ChatServiceI getServant() {
+        return servant;
+    }
+
     public void stop() {
         if (communicator != null) {
             communicator.destroy();
         }
+        if (servant != null) {
+            servant.shutdown();
+        }
+        if (dispatchLanes != null) {
+            dispatchLanes.shutdown();
+        }
     }
 }
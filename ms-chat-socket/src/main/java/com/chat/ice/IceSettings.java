@@ -0,0 +1,47 @@
+package com.chat.ice;
+
+import lombok.Data;
+
+/**
+ * Parámetros del servidor ICE. Se enlazan desde application.properties (prefijo "chat.ice").
+ */
+@Data
+public class IceSettings {
+
+    public enum AudioBudgetPolicy { REJECT, EVICT_OLDEST }
+
+    // Pool de hilos del servidor ICE y carriles de dispatch
+    private int serverThreads = 4;
+    private int serverThreadsMax = 16;
+    private int dispatchLanes = 8;
+    private int conversationLanes = 8;
+
+    // Cola de salida por cliente. BLOCK frena el carril que encola (hasta outboxBlockTimeoutMs)
+    // y con él a las demás conversaciones de ese carril: ver ClientOutbox.OverflowPolicy
+    private int outboxCapacity = 256;
+    private ClientOutbox.OverflowPolicy outboxOverflow = ClientOutbox.OverflowPolicy.DROP_OLDEST_AUDIO;
+    private long outboxBlockTimeoutMs = 2000;
+
+    // Tamaño máximo de página en getHistoryPage/getHistorySince
+    private int historyMaxPageSize = 200;
+
+    // Presupuesto (bytes estimados) del cache de historiales completos por versión
+    private long historyCacheBytes = 32L * 1024 * 1024;
+
+    // Relay de audio en vivo
+    private int relayThreads = 2;
+    private int relayMaxFrameBytes = 16 * 1024;
+    private long relayMaxFrameDelayMs = 40;
+    private int relayReorderWindow = 32;
+
+    // Pool de buffers directos para audio en vuelo
+    private int audioPoolSlabBytes = 64 * 1024;
+    private long audioPoolMaxBytes = 64L * 1024 * 1024;
+
+    // Expiración de streams abandonados y tope global de audio en buffer
+    private long audioIdleTimeoutMs = 30_000;
+    private long audioMaxAgeMs = 10 * 60_000;
+    private long audioSweepIntervalMs = 5_000;
+    private long audioMaxBufferedBytes = 48L * 1024 * 1024;
+    private AudioBudgetPolicy audioBudgetPolicy = AudioBudgetPolicy.REJECT;
+}
@@ -1,9 +1,13 @@
 package com.chat.socket;
 
 import com.chat.ice.IceServer;
+import com.chat.ice.IceSettings;
+import com.chat.socket.service.MediaStore;
+import com.chat.socket.store.MessageStore;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 
 @SpringBootApplication
@@ -14,12 +18,20 @@ public class MsChatSocketApplication {
     }
 
     @Bean
-    public CommandLineRunner startIceOnStartup() {
+    @ConfigurationProperties(prefix = "chat.ice")
+    public IceSettings iceSettings() {
+        return new IceSettings();
+    }
+
+    @Bean(destroyMethod = "stop")
+    public IceServer iceServer(IceSettings iceSettings, MessageStore messageStore, MediaStore mediaStore) {
+        return new IceServer(iceSettings, messageStore, mediaStore);
+    }
+
+    @Bean
+    public CommandLineRunner startIceOnStartup(IceServer server) {
         return args -> {
-            Thread iceThread = new Thread(() -> {
-                IceServer server = new IceServer();
-                server.start();
-            }, "IceServerThread");
+            Thread iceThread = new Thread(server::start, "IceServerThread");
             iceThread.setDaemon(true);
             iceThread.start();
         };
@@ -0,0 +1,45 @@
+package com.chat.socket.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frame binario de /audio-socket: cabecera fija de 8 bytes (big-endian) + ids + audio crudo.
+ * <pre>
+ *   0  u8   versión (1)
+ *   1  u8   flags   (bit 0 = LAST: último chunk del stream)
+ *   2  u8   largo del room (1..255)
+ *   3  u8   largo del stream id (1..255)
+ *   4  i32  índice del chunk dentro del stream
+ *   8  room (utf-8) · stream id (utf-8) · audio
+ * </pre>
+ * El servidor solo lee la cabecera para rutear; el frame se reenvía completo, sin tocarlo.
+ */
+public record AudioFrame(String room, int flags, int index) {
+
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 8;
+    public static final int FLAG_LAST = 1;
+
+    /** null si la cabecera no es válida (versión, largos fuera del frame, ids vacíos). */
+    public static AudioFrame read(ByteBuffer frame) {
+        int base = frame.position();
+        if (frame.remaining() < HEADER_BYTES || (frame.get(base) & 0xff) != VERSION) {
+            return null;
+        }
+        int flags = frame.get(base + 1) & 0xff;
+        int roomLen = frame.get(base + 2) & 0xff;
+        int streamLen = frame.get(base + 3) & 0xff;
+        if (roomLen == 0 || streamLen == 0 || frame.remaining() < HEADER_BYTES + roomLen + streamLen) {
+            return null;
+        }
+        int index = frame.getInt(base + 4);
+        byte[] room = new byte[roomLen];
+        frame.get(base + HEADER_BYTES, room);
+        return new AudioFrame(new String(room, StandardCharsets.UTF_8), flags, index);
+    }
+
+    public boolean last() {
+        return (flags & FLAG_LAST) != 0;
+    }
+}
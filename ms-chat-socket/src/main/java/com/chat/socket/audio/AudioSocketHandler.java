@@ -0,0 +1,224 @@
+package com.chat.socket.audio;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Endpoint WebSocket nativo /audio-socket para audio en binario (sin base64 ni STOMP).
+ * - Control en texto: {"action":"join"|"leave","room":"r1"} -> {"ok":true,"action":..,"room":..}
+ * - Audio en binario (ver AudioFrame): solo se puede mandar a salas a las que uno se unió;
+ *   el frame se reenvía tal cual a los demás miembros de la sala.
+ * - Fan-out sin copias: el frame se copia una vez al llegar y cada destinatario recibe una
+ *   vista (duplicate()) del mismo buffer.
+ * - Cada sesión va envuelta en un ConcurrentWebSocketSessionDecorator: varios emisores pueden
+ *   escribirle a la vez y, si no da abasto, se descartan frames (audio en vivo) en vez de cortarla.
+ */
+@Component
+public class AudioSocketHandler extends AbstractWebSocketHandler {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Value("${chat.audio-ws.max-frame-bytes:65536}")
+    private int maxFrameBytes;
+
+    @Value("${chat.audio-ws.send-buffer-bytes:1048576}")
+    private int sendBufferBytes;
+
+    @Value("${chat.audio-ws.send-time-limit-ms:5000}")
+    private int sendTimeLimitMs;
+
+    // Sesión (id) -> su envoltorio concurrente y las salas a las que se unió
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    // Sala -> miembros
+    private final Map<String, Set<Peer>> rooms = new ConcurrentHashMap<>();
+
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong framesIn = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong streamsEnded = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private static final class Peer {
+        final WebSocketSession session;
+        final Set<String> rooms = ConcurrentHashMap.newKeySet();
+
+        Peer(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        session.setBinaryMessageSizeLimit(maxFrameBytes);
+        WebSocketSession out = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimitMs, sendBufferBytes,
+                ConcurrentWebSocketSessionDecorator.OverflowStrategy.DROP);
+        peers.put(session.getId(), new Peer(out));
+        connections.incrementAndGet();
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        Peer peer = peers.remove(session.getId());
+        if (peer != null) {
+            peer.rooms.forEach(room -> leave(peer, room));
+        }
+    }
+
+    // ----- control -----
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+        Peer peer = peers.get(session.getId());
+        if (peer == null) {
+            return;
+        }
+        String action = null;
+        String room = null;
+        try (JsonParser p = JSON.createParser(message.getPayload())) {
+            if (p.nextToken() == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = p.currentName();
+                    JsonToken t = p.nextToken();
+                    if (t.isScalarValue() && "action".equals(name)) {
+                        action = p.getValueAsString();
+                    } else if (t.isScalarValue() && "room".equals(name)) {
+                        room = p.getValueAsString();
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            reply(peer, null, null, "invalid_json");
+            return;
+        }
+        if (room == null || room.isEmpty() || room.getBytes(StandardCharsets.UTF_8).length > 255) {
+            reply(peer, action, room, "invalid_room");
+            return;
+        }
+        if ("join".equals(action)) {
+            peer.rooms.add(room);
+            rooms.computeIfAbsent(room, k -> ConcurrentHashMap.newKeySet()).add(peer);
+            if (!peers.containsKey(session.getId())) {
+                leave(peer, room); // se cerró mientras se unía
+            }
+            reply(peer, action, room, null);
+        } else if ("leave".equals(action)) {
+            peer.rooms.remove(room);
+            leave(peer, room);
+            reply(peer, action, room, null);
+        } else {
+            reply(peer, action, room, "unknown_action");
+        }
+    }
+
+    private void leave(Peer peer, String room) {
+        rooms.computeIfPresent(room, (k, members) -> {
+            members.remove(peer);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    private void reply(Peer peer, String action, String room, String error) throws IOException {
+        StringWriter w = new StringWriter(64);
+        try (JsonGenerator g = JSON.createGenerator(w)) {
+            g.writeStartObject();
+            g.writeBooleanField("ok", error == null);
+            if (error != null) {
+                g.writeStringField("error", error);
+            }
+            if (action != null) {
+                g.writeStringField("action", action);
+            }
+            if (room != null) {
+                g.writeStringField("room", room);
+            }
+            g.writeEndObject();
+        }
+        peer.session.sendMessage(new TextMessage(w.toString()));
+    }
+
+    // ----- audio -----
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        Peer sender = peers.get(session.getId());
+        ByteBuffer in = message.getPayload();
+        AudioFrame frame = AudioFrame.read(in);
+        if (sender == null || frame == null || !sender.rooms.contains(frame.room())) {
+            rejected.incrementAndGet();
+            return;
+        }
+        int size = in.remaining();
+        framesIn.incrementAndGet();
+        bytesIn.addAndGet(size);
+        if (frame.last()) {
+            streamsEnded.incrementAndGet();
+        }
+
+        Set<Peer> members = rooms.get(frame.room());
+        if (members == null || members.size() < 2) {
+            return;
+        }
+        // Una sola copia (el contenedor puede reutilizar su buffer); los envíos comparten esta
+        ByteBuffer shared = ByteBuffer.allocate(size).put(in.duplicate()).flip().asReadOnlyBuffer();
+        for (Peer peer : members) {
+            if (peer == sender) {
+                continue;
+            }
+            try {
+                peer.session.sendMessage(new BinaryMessage(shared.duplicate(), true));
+                deliveries.incrementAndGet();
+                bytesOut.addAndGet(size);
+            } catch (IOException | RuntimeException e) {
+                // Un receptor caído no corta el reparto al resto de la sala
+                failures.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        failures.incrementAndGet();
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("sessions", peers.size());
+        out.put("connections", connections.get());
+        out.put("rooms", rooms.size());
+        out.put("framesIn", framesIn.get());
+        out.put("bytesIn", bytesIn.get());
+        out.put("deliveries", deliveries.get());
+        out.put("bytesOut", bytesOut.get());
+        out.put("streamsEnded", streamsEnded.get());
+        out.put("rejected", rejected.get());
+        out.put("failures", failures.get());
+        return out;
+    }
+}
@@ -0,0 +1,120 @@
+package com.chat.socket.concurrent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * N carriles de un solo hilo. Todo el trabajo con la misma clave cae en el mismo carril
+ * y se ejecuta en orden, sin locks; claves distintas corren en paralelo.
+ * Una tarea de execute(...) que lanza no corta el carril: se cuenta en failures y se le pasa
+ * a onFailure (por defecto una línea "[name] tarea fallida" en stdout).
+ * Lo usan ICE (dispatch y conversaciones) y el broker STOMP (salas).
+ */
+public class LaneExecutor {
+
+    private static final Object NULL_KEY = new Object();
+
+    private final String name;
+    private final ThreadPoolExecutor[] lanes;
+    private final AtomicLong tasks = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Consumer<RuntimeException> onFailure;
+
+    // executeAfter: último turno pedido por clave (se borra cuando nadie más lo pidió)
+    private final Map<Object, CompletableFuture<Void>> turns = new ConcurrentHashMap<>();
+
+    public LaneExecutor(String name, int count) {
+        this(name, count, null);
+    }
+
+    public LaneExecutor(String name, int count, Consumer<RuntimeException> onFailure) {
+        this.name = name;
+        this.onFailure = onFailure != null ? onFailure
+                : e -> System.out.println("[" + name + "] tarea fallida: " + e);
+        int n = Math.max(1, count);
+        this.lanes = new ThreadPoolExecutor[n];
+        for (int i = 0; i < n; i++) {
+            String threadName = name + "-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private ThreadPoolExecutor laneOf(Object key) {
+        int h = key != null ? key.hashCode() : 0;
+        // Mezcla los bits altos para repartir mejor hashes consecutivos
+        h ^= (h >>> 16);
+        return lanes[Math.floorMod(h, lanes.length)];
+    }
+
+    public void execute(Object key, Runnable task) {
+        tasks.incrementAndGet();
+        laneOf(key).execute(guarded(task));
+    }
+
+    /**
+     * Corre first en el hilo que llama y después encola task en el carril. Dos llamadas con la
+     * misma clave encolan sus tareas en el mismo orden en que corrieron first: cada una toma su
+     * turno (un future encadenado al último de la clave) y espera solo a la anterior de esa
+     * clave. first corre sin ningún lock tomado, así claves distintas que caen en el mismo
+     * carril no se esperan entre sí.
+     * Si first lanza, no se encola nada, la excepción le llega al que llama y el turno pasa al
+     * siguiente.
+     */
+    public void executeAfter(Object key, Runnable first, Runnable task) {
+        Object k = key != null ? key : NULL_KEY;
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> previous = turns.put(k, mine);
+        try {
+            if (previous != null) {
+                previous.join();
+            }
+            first.run();
+            tasks.incrementAndGet();
+            laneOf(key).execute(guarded(task));
+        } finally {
+            mine.complete(null);
+            turns.remove(k, mine);
+        }
+    }
+
+    private Runnable guarded(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                onFailure.accept(e);
+            }
+        };
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        List<Integer> depths = new ArrayList<>(lanes.length);
+        for (ThreadPoolExecutor lane : lanes) {
+            depths.add(lane.getQueue().size());
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("lanes", lanes.length);
+        out.put("tasks", tasks.get());
+        out.put("failures", failures.get());
+        out.put("queueDepths", depths);
+        return out;
+    }
+}
@@ -0,0 +1,32 @@
+package com.chat.socket.configuration;
+
+import com.chat.socket.audio.AudioSocketHandler;
+import com.chat.socket.websocket.EndpointMetrics;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * WebSocket nativo para audio binario, al lado del STOMP de /chat-socket (ver AudioSocketHandler).
+ */
+@Configuration
+@EnableWebSocket
+public class AudioSocketConfiguration implements WebSocketConfigurer {
+
+    private final AudioSocketHandler audioHandler;
+    private final EndpointMetrics endpointMetrics;
+
+    public AudioSocketConfiguration(AudioSocketHandler audioHandler, EndpointMetrics endpointMetrics) {
+        this.audioHandler = audioHandler;
+        this.endpointMetrics = endpointMetrics;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        // El audio ya viene comprimido por el códec: deflate no ahorra nada, solo cuesta CPU
+        registry.addHandler(endpointMetrics.decorate(audioHandler), "/audio-socket")
+                .setAllowedOriginPatterns("*")
+                .addInterceptors(endpointMetrics.endpoint("/audio-socket", false, false));
+    }
+}
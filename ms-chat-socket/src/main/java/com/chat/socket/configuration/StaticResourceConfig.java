@@ -1,5 +1,6 @@
 package com.chat.socket.configuration;
 
+import com.chat.socket.service.MediaStore;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.*;
 
@@ -11,8 +12,8 @@ public class StaticResourceConfig implements WebMvcConfigurer {
 
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        String uploadDir = Paths.get("uploads").toAbsolutePath().toUri().toString();
-        registry.addResourceHandler("/media/**")
+        String uploadDir = Paths.get(MediaStore.UPLOAD_DIR).toAbsolutePath().toUri().toString();
+        registry.addResourceHandler(MediaStore.URL_PREFIX + "**")
                 .addResourceLocations(uploadDir)
                 .setCachePeriod(3600); // 1 hora
     }
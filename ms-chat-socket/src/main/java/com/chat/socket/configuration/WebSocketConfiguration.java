@@ -1,35 +1,96 @@
 package com.chat.socket.configuration;
 
+import com.chat.socket.stomp.RoomBroker;
+import com.chat.socket.websocket.EndpointMetrics;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.user.UserDestinationResolver;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.config.annotation.*;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
 
+import java.util.List;
+
+/**
+ * STOMP sobre WebSocket/SockJS con un broker propio (RoomBroker) en vez de enableSimpleBroker:
+ * se extiende la configuración base de Spring para reemplazar el bean del broker.
+ * - /chat-socket: SockJS, para clientes sin WebSocket o detrás de proxies que no lo dejan pasar.
+ * - /chat-ws: el mismo STOMP por WebSocket directo (sin el framing de SockJS), con
+ *   permessage-deflate si el cliente lo ofrece (ver EndpointMetrics).
+ */
 @Configuration
-@EnableWebSocketMessageBroker
-public class WebSocketConfiguration implements WebSocketMessageBrokerConfigurer {
+public class WebSocketConfiguration extends WebSocketMessageBrokerConfigurationSupport {
+
+    private static final int MESSAGE_SIZE_LIMIT = 1024 * 1024;
+
+    // Carriles de reparto del broker (cada sala cae siempre en el mismo)
+    @Value("${chat.stomp.dispatch-lanes:4}")
+    private int dispatchLanes;
+
+    private final EndpointMetrics endpointMetrics;
+
+    public WebSocketConfiguration(EndpointMetrics endpointMetrics) {
+        this.endpointMetrics = endpointMetrics;
+    }
 
     @Override
-    public void configureMessageBroker(MessageBrokerRegistry registry) {
-        registry.enableSimpleBroker("/topic");
+    protected void configureMessageBroker(MessageBrokerRegistry registry) {
         registry.setApplicationDestinationPrefixes("/app");
+        // Lo que recibe cada sesión sale en orden aunque el canal de salida tenga pool
+        registry.setPreservePublishOrder(true);
     }
 
+    @Bean
     @Override
-    public void registerStompEndpoints(StompEndpointRegistry registry) {
+    public RoomBroker simpleBrokerMessageHandler(
+            @Qualifier("clientInboundChannel") AbstractSubscribableChannel clientInboundChannel,
+            @Qualifier("clientOutboundChannel") AbstractSubscribableChannel clientOutboundChannel,
+            @Qualifier("brokerChannel") AbstractSubscribableChannel brokerChannel,
+            UserDestinationResolver userDestinationResolver) {
+        RoomBroker broker = new RoomBroker(clientInboundChannel, clientOutboundChannel, brokerChannel, List.of("/topic"), dispatchLanes);
+        // El canal de salida sigue con su pool (una sesión lenta no frena el carril de la sala);
+        // el broker encola por sesión, igual que el simple broker con setPreservePublishOrder
+        broker.setPreservePublishOrder(true);
+        return broker;
+    }
+
+    @Override
+    protected void registerStompEndpoints(StompEndpointRegistry registry) {
+        // Los SEND de una sesión llegan al broker en el orden en que los mandó; junto con el
+        // carril por sala, cada sala se reparte en el orden de envío
+        registry.setPreserveReceiveOrder(true);
         registry.addEndpoint("/chat-socket")
                 .setAllowedOriginPatterns("*")
+                .addInterceptors(endpointMetrics.endpoint("/chat-socket", true, true))
                 .withSockJS()
                 // ⬇️ Límites útiles para notas de voz usando SockJS
                 .setStreamBytesLimit(1024 * 1024)   // 1 MB por stream
                 .setHttpMessageCacheSize(2000)
                 .setDisconnectDelay(30_000);
+        registry.addEndpoint("/chat-ws")
+                .setAllowedOriginPatterns("*")
+                .addInterceptors(endpointMetrics.endpoint("/chat-ws", false, true));
     }
 
     // ⬆️ Límites de transporte STOMP/WebSocket en el lado servidor
     @Override
-    public void configureWebSocketTransport(WebSocketTransportRegistration registry) {
-        registry.setMessageSizeLimit(1024 * 1024);        // 1 MB por mensaje
+    protected void configureWebSocketTransport(WebSocketTransportRegistration registry) {
+        registry.setMessageSizeLimit(MESSAGE_SIZE_LIMIT);  // 1 MB por mensaje
         registry.setSendBufferSizeLimit(2 * 1024 * 1024); // 2 MB buffer total
         registry.setSendTimeLimit(30 * 1000);             // 30 s para enviar
+        // El contenedor corta los mensajes de texto de más de 8 KB por WebSocket (1009) antes
+        // de que lleguen a STOMP: se sube su tope por sesión al mismo MB
+        registry.addDecoratorFactory(handler -> new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                session.setTextMessageSizeLimit(MESSAGE_SIZE_LIMIT);
+                super.afterConnectionEstablished(session);
+            }
+        });
+        registry.addDecoratorFactory(endpointMetrics::decorate);
     }
 }
@@ -0,0 +1,59 @@
+package com.chat.socket.controller;
+
+import com.chat.ice.ChatServiceI;
+import com.chat.ice.IceServer;
+import com.chat.socket.audio.AudioSocketHandler;
+import com.chat.socket.store.MessageLog;
+import com.chat.socket.store.MessageStore;
+import com.chat.socket.stomp.InlineAudioOffload;
+import com.chat.socket.stomp.RoomBroker;
+import com.chat.socket.tcp.TcpJsonServer;
+import com.chat.socket.websocket.EndpointMetrics;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class StatsController {
+
+    private final IceServer iceServer;
+    private final MessageLog messageLog;
+    private final MessageStore messageStore;
+    private final TcpJsonServer tcpServer;
+    private final RoomBroker stompBroker;
+    private final AudioSocketHandler audioSocket;
+    private final InlineAudioOffload inlineAudio;
+    private final EndpointMetrics endpointMetrics;
+
+    public StatsController(IceServer iceServer, MessageLog messageLog, MessageStore messageStore,
+                           TcpJsonServer tcpServer, RoomBroker stompBroker, AudioSocketHandler audioSocket,
+                           InlineAudioOffload inlineAudio, EndpointMetrics endpointMetrics) {
+        this.iceServer = iceServer;
+        this.messageLog = messageLog;
+        this.messageStore = messageStore;
+        this.tcpServer = tcpServer;
+        this.stompBroker = stompBroker;
+        this.audioSocket = audioSocket;
+        this.inlineAudio = inlineAudio;
+        this.endpointMetrics = endpointMetrics;
+    }
+
+    // Métricas en memoria de los distintos adaptadores (colas, contadores, etc.)
+    @GetMapping("/stats")
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        ChatServiceI servant = iceServer.getServant();
+        out.put("ice", servant != null ? servant.stats() : Map.of());
+        out.put("iceDispatch", iceServer.getDispatchLanes() != null ? iceServer.getDispatchLanes().stats() : Map.of());
+        out.put("tcp", tcpServer.stats());
+        out.put("stomp", stompBroker.stats());
+        out.put("stompInlineAudio", inlineAudio.stats());
+        out.put("audioSocket", audioSocket.stats());
+        out.put("wsEndpoints", endpointMetrics.stats());
+        out.put("log", messageLog.stats());
+        out.put("store", messageStore.stats());
+        return out;
+    }
+}
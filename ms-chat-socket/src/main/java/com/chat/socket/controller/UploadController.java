@@ -1,5 +1,6 @@
 package com.chat.socket.controller;
 
+import com.chat.socket.service.MediaStore;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
@@ -7,16 +8,17 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
-import java.nio.file.*;
-import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
 
 @RestController
 public class UploadController {
 
-    private static final String UPLOAD_DIR = "uploads"; // carpeta relativa al working dir
+    private final MediaStore mediaStore;
+
+    public UploadController(MediaStore mediaStore) {
+        this.mediaStore = mediaStore;
+    }
 
     @PostMapping(path = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> upload(@RequestParam("file") MultipartFile file,
@@ -30,17 +32,13 @@ public class UploadController {
                     ? ext.replaceAll("[^a-zA-Z0-9.]", "")
                     : (original.contains(".") ? original.substring(original.lastIndexOf('.') + 1) : "webm");
 
-            Files.createDirectories(Paths.get(UPLOAD_DIR));
-            String id = UUID.randomUUID().toString();
-            String filename = id + "_" + Instant.now().toEpochMilli() + "." + safeExt;
-            Path target = Paths.get(UPLOAD_DIR, filename);
-
+            String filename;
             try (InputStream in = file.getInputStream()) {
-                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                filename = mediaStore.save(in, safeExt);
             }
 
             // La URL pública que servimos por StaticResourceConfig
-            String url = "/media/" + filename;
+            String url = MediaStore.urlOf(filename);
 
             Map<String, Object> resp = new HashMap<>();
             resp.put("url", url);
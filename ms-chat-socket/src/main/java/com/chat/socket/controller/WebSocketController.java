@@ -1,48 +1,124 @@
 package com.chat.socket.controller;
 
+import chat.Message;
+import chat.MessageType;
 import com.chat.socket.service.ConnectedUsersService;
+import com.chat.socket.store.MessageLog;
+import com.chat.socket.store.MessageStore;
+import com.chat.socket.stomp.ChatFrame;
+import com.chat.socket.stomp.InlineAudioOffload;
 import org.springframework.context.event.EventListener;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
-import java.util.Map;
+import java.io.IOException;
+import java.util.UUID;
 
 @Controller
 public class WebSocketController {
 
     private final ConnectedUsersService connectedUsersService;
     private final SimpMessagingTemplate template;
+    private final MessageStore store;
+    private final InlineAudioOffload inlineAudio;
 
     public WebSocketController(ConnectedUsersService connectedUsersService,
-                               SimpMessagingTemplate template) {
+                               SimpMessagingTemplate template,
+                               MessageStore store,
+                               InlineAudioOffload inlineAudio) {
         this.connectedUsersService = connectedUsersService;
         this.template = template;
+        this.store = store;
+        this.inlineAudio = inlineAudio;
     }
 
-    // Acepta CUALQUIER JSON: texto, señalización WebRTC y audio (chunked)
+    // Acepta CUALQUIER JSON: texto, señalización WebRTC y audio (chunked).
+    // No se decodifica a Map: ChatFrame lee solo los campos que se usan aquí y el payload
+    // original se reenvía byte a byte (salvo audio inline sobre el umbral, ver InlineAudioOffload).
     @MessageMapping("/chat/{roomId}")
     public void chat(@DestinationVariable String roomId,
-                     Map<String, Object> payload,
+                     @Payload byte[] payload,
                      SimpMessageHeaderAccessor headerAccessor) {
 
-        String user = payload != null && payload.get("user") != null
-                ? String.valueOf(payload.get("user"))
-                : "anon";
+        ChatFrame frame;
+        try {
+            frame = ChatFrame.scan(payload);
+        } catch (IOException e) {
+            System.out.println("[WS] /app/chat/" + roomId + " payload inválido session="
+                    + headerAccessor.getSessionId() + ": " + e.getMessage());
+            return;
+        }
+
+        // Audio inline grande: a uploads/ y a la sala solo la URL
+        InlineAudioOffload.Result offloaded = inlineAudio.offload(payload, frame);
+        if (offloaded != null) {
+            payload = offloaded.payload();
+            frame = offloaded.frame();
+        }
+
+        String user = frame.user() != null ? frame.user() : "anon";
 
         System.out.println("[WS] /app/chat/" + roomId + " <- " + user +
-                " keys=" + (payload != null ? payload.keySet() : "null") +
+                " keys=" + frame.keys() +
+                " bytes=" + payload.length +
                 " session=" + headerAccessor.getSessionId());
 
         if (user != null && !connectedUsersService.getUsers().contains(user)) {
             connectedUsersService.addUser(user);
         }
 
-        // 🔁 Relay "tal cual": preserva audioBase64/chunks, signalType, candidate, etc.
-        template.convertAndSend("/topic/" + roomId, payload);
+        // Texto y audio por URL quedan en el historial compartido (señalización y audio inline chico no).
+        // Si el historial falla el relay sigue igual: la sala en vivo no depende del store
+        storeIfChat(roomId, user, frame);
+
+        // 🔁 Relay "tal cual": los mismos bytes (audioBase64/chunks, signalType, candidate, etc.)
+        SimpMessageHeaderAccessor out = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        out.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        out.setLeaveMutable(true);
+        template.send("/topic/" + roomId, MessageBuilder.createMessage(payload, out.getMessageHeaders()));
+    }
+
+    private void storeIfChat(String roomId, String user, ChatFrame frame) {
+        boolean isText = frame.message() != null && !frame.message().isEmpty();
+        boolean isAudio = frame.audioUrl() != null && !frame.audioUrl().isEmpty();
+        if (frame.signal() || (!isText && !isAudio)) {
+            return;
+        }
+        // Con id, el mismo mensaje ya pudo guardarse por HTTP (clientMsgId) o en un reenvío
+        if (frame.id() != null && !store.claim(user, frame.id())) {
+            return;
+        }
+
+        Message m = new Message(
+                frame.id() != null ? frame.id() : UUID.randomUUID().toString(),
+                user,
+                roomId,
+                MessageStore.GROUP,
+                isText ? MessageType.TEXT : MessageType.AUDIO,
+                isText ? frame.message() : "",
+                isAudio ? frame.audioUrl() : "",
+                frame.createdAt() != null ? frame.createdAt() : System.currentTimeMillis(),
+                frame.mimeType() != null ? frame.mimeType() : "",
+                frame.duration() != null ? frame.duration() : 0.0
+        );
+        try {
+            store.append(MessageLog.source(MessageLog.SOURCE_STOMP, frame.id() != null), m);
+        } catch (RuntimeException e) {
+            // No quedó guardado: un reenvío con el mismo id tiene que poder guardarse
+            if (frame.id() != null) {
+                store.release(user, frame.id());
+            }
+            System.out.println("[WS] no se pudo guardar en el historial room=" + roomId + " user=" + user
+                    + ": " + e.getMessage());
+        }
     }
 
     @EventListener
@@ -0,0 +1,82 @@
+package com.chat.socket.service;
+
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Archivos de media (notas de voz) en uploads/, servidos bajo /media/ por StaticResourceConfig.
+ * Lo usan la subida por HTTP (UploadController), el relay STOMP al sacar el audio inline y
+ * las notas de voz de ICE al terminar el stream.
+ */
+@Service
+public class MediaStore {
+
+    public static final String UPLOAD_DIR = "uploads"; // carpeta relativa al working dir
+    public static final String URL_PREFIX = "/media/";
+
+    /** Guarda el contenido con un nombre nuevo y devuelve ese nombre. */
+    public String save(InputStream in, String ext) throws IOException {
+        Path target = newTarget(ext);
+        Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        return target.getFileName().toString();
+    }
+
+    public String save(byte[] data, String ext) throws IOException {
+        Path target = newTarget(ext);
+        Files.write(target, data);
+        return target.getFileName().toString();
+    }
+
+    /** Escribe los buffers en orden (de position a limit) de una sola vez, sin copiarlos al heap. */
+    public String save(ByteBuffer[] parts, String ext) throws IOException {
+        Path target = newTarget(ext);
+        long left = 0;
+        for (ByteBuffer b : parts) {
+            left += b.remaining();
+        }
+        try (FileChannel ch = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (left > 0) {
+                left -= ch.write(parts);
+            }
+        }
+        return target.getFileName().toString();
+    }
+
+    /** La URL pública de un archivo guardado. */
+    public static String urlOf(String filename) {
+        return URL_PREFIX + filename;
+    }
+
+    // Misma convención que el frontend al subir por /upload
+    public static String extensionOf(String mimeType) {
+        String mime = mimeType != null ? mimeType : "";
+        if (mime.contains("mp4")) {
+            return "m4a";
+        }
+        if (mime.contains("ogg")) {
+            return "ogg";
+        }
+        if (mime.contains("mpeg")) {
+            return "mp3";
+        }
+        if (mime.contains("wav")) {
+            return "wav";
+        }
+        return "webm";
+    }
+
+    private static Path newTarget(String ext) throws IOException {
+        Files.createDirectories(Paths.get(UPLOAD_DIR));
+        String id = UUID.randomUUID().toString();
+        String filename = id + "_" + Instant.now().toEpochMilli() + "." + ext.replaceAll("[^a-zA-Z0-9.]", "");
+        return Paths.get(UPLOAD_DIR, filename);
+    }
+}
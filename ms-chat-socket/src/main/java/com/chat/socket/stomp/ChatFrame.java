@@ -0,0 +1,102 @@
+package com.chat.socket.stomp;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lo que el relay STOMP necesita saber de un payload de /app/chat/{roomId}, leído con el
+ * JsonParser de streaming sin armar un Map: solo los campos de primer nivel que usan el log
+ * y storeIfChat. Los demás valores (audioBase64, sdp, candidate, ...) se saltan sin
+ * decodificarlos, y el payload original se reenvía tal cual.
+ * - message/audioUrl solo cuentan si son strings; createdAt/duration solo si son números.
+ * - El frontend Angular manda el audio subido como {type:"audio-url", url, ...}: url cuenta
+ *   como audioUrl (si no vino también un audioUrl).
+ * - signalType cuenta si está y no es null (cualquier tipo), igual que antes con el Map.
+ * - inlineAudioBytes: tamaño aproximado (en el payload) del string audioBase64, sin decodificarlo;
+ *   0 si no viene o no es string.
+ */
+public record ChatFrame(List<String> keys, String user, String message, String audioUrl, boolean signal,
+                        String id, Long createdAt, String mimeType, Double duration, int inlineAudioBytes) {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    /** Lanza IOException si el payload no es un objeto JSON válido (no se reenvía). */
+    public static ChatFrame scan(byte[] payload) throws IOException {
+        try (JsonParser p = JSON.createParser(payload)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "se esperaba un objeto");
+            }
+            List<String> keys = new ArrayList<>();
+            String user = null;
+            String message = null;
+            String audioUrl = null;
+            String type = null;
+            String url = null;
+            boolean signal = false;
+            String id = null;
+            Long createdAt = null;
+            String mimeType = null;
+            Double duration = null;
+            int inlineAudioBytes = 0;
+            long audioStart = -1;
+            JsonToken next;
+            while ((next = p.nextToken()) == JsonToken.FIELD_NAME || audioStart >= 0) {
+                if (audioStart >= 0) {
+                    // El string de audio termina donde empieza el token siguiente
+                    inlineAudioBytes = (int) (p.currentTokenLocation().getByteOffset() - audioStart);
+                    audioStart = -1;
+                    if (next != JsonToken.FIELD_NAME) {
+                        break;
+                    }
+                }
+                String name = p.currentName();
+                JsonToken t = p.nextToken();
+                keys.add(name);
+                switch (name) {
+                    case "user" -> user = scalar(p, t);
+                    case "message" -> message = t == JsonToken.VALUE_STRING ? p.getText() : null;
+                    case "audioUrl" -> audioUrl = t == JsonToken.VALUE_STRING ? p.getText() : null;
+                    case "type" -> type = t == JsonToken.VALUE_STRING ? p.getText() : null;
+                    case "url" -> url = t == JsonToken.VALUE_STRING ? p.getText() : null;
+                    case "signalType" -> signal = t != JsonToken.VALUE_NULL;
+                    case "id" -> id = scalar(p, t);
+                    case "createdAt" -> createdAt = t.isNumeric() ? p.getLongValue() : null;
+                    case "mimeType" -> mimeType = scalar(p, t);
+                    case "duration" -> duration = t.isNumeric() ? p.getDoubleValue() : null;
+                    case "audioBase64" -> audioStart = t == JsonToken.VALUE_STRING
+                            ? p.currentTokenLocation().getByteOffset() : -1;
+                    default -> {
+                    }
+                }
+                p.skipChildren();
+            }
+            if (p.nextToken() != null) {
+                throw new JsonParseException(p, "contenido después del objeto");
+            }
+            if (audioUrl == null && "audio-url".equals(type)) {
+                audioUrl = url;
+            }
+            return new ChatFrame(keys, user, message, audioUrl, signal, id, createdAt, mimeType, duration, inlineAudioBytes);
+        }
+    }
+
+    /** El mismo frame después de sacar el audio inline a un archivo (ver InlineAudioOffload). */
+    public ChatFrame withAudioUrl(String url) {
+        List<String> rest = new ArrayList<>(keys);
+        rest.removeAll(List.of("audioBase64", "audioUrl", "type", "url"));
+        rest.add("type");
+        rest.add("url");
+        return new ChatFrame(rest, user, message, url, signal, id, createdAt, mimeType, duration, 0);
+    }
+
+    // Escalares como texto (un número en "user" sigue valiendo); null y objetos no cuentan
+    private static String scalar(JsonParser p, JsonToken t) throws IOException {
+        return t.isScalarValue() && t != JsonToken.VALUE_NULL ? p.getValueAsString() : null;
+    }
+}
@@ -0,0 +1,132 @@
+package com.chat.socket.stomp;
+
+import com.chat.socket.service.MediaStore;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saca del relay STOMP el audio inline (audioBase64) que pasa el umbral: se decodifica una
+ * vez, se guarda en el MediaStore (uploads/, servido en /media/) y a la sala sale el mismo
+ * payload sin audioBase64 y con la forma del audio subido por HTTP que ya entiende el frontend:
+ * type "audio-url" y url (mimeType y duration se copian si venían). El costo del fan-out deja
+ * de depender del clip, y el mensaje pasa a guardarse en el historial como audio por URL.
+ * - Los demás campos se copian tal cual y en el mismo orden; type y url van al final.
+ * - Si el base64 no es válido (p. ej. un data: URL entero) se deja pasar el original.
+ * - Corre en el hilo de entrada STOMP (el relay de la sala sigue en orden). Como mucho
+ *   maxConcurrent a la vez decodifican y escriben: pasado eso no se espera, el frame sale
+ *   inline como antes y se cuenta en "rejected".
+ */
+@Component
+public class InlineAudioOffload {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    // 0 = desactivado
+    @Value("${chat.stomp.inline-audio-max-bytes:65536}")
+    private int maxInlineBytes;
+
+    @Value("${chat.stomp.inline-audio-max-concurrent:4}")
+    private int maxConcurrent;
+
+    private final MediaStore mediaStore;
+
+    private Semaphore slots;
+
+    private final AtomicLong offloaded = new AtomicLong();
+    private final AtomicLong offloadedBytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public InlineAudioOffload(MediaStore mediaStore) {
+        this.mediaStore = mediaStore;
+    }
+
+    @PostConstruct
+    void init() {
+        slots = new Semaphore(Math.max(1, maxConcurrent));
+    }
+
+    public record Result(byte[] payload, ChatFrame frame) {}
+
+    /**
+     * null si no hay que sacar nada (sin audio inline, debajo del umbral, base64 inválido o
+     * ya hay maxConcurrent offloads en curso).
+     */
+    public Result offload(byte[] payload, ChatFrame frame) {
+        if (maxInlineBytes <= 0 || frame.inlineAudioBytes() <= maxInlineBytes || frame.signal()) {
+            return null;
+        }
+        if (!slots.tryAcquire()) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        try {
+            return save(payload, frame);
+        } finally {
+            slots.release();
+        }
+    }
+
+    private Result save(byte[] payload, ChatFrame frame) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+            byte[] audio = null;
+            try (JsonParser p = JSON.createParser(payload);
+                 JsonGenerator g = JSON.createGenerator(out)) {
+                p.nextToken();
+                g.writeStartObject();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = p.currentName();
+                    p.nextToken();
+                    if ("audioBase64".equals(name)) {
+                        // Decodifica directo desde el payload, sin pasar por un String
+                        audio = p.getBinaryValue();
+                    } else if ("type".equals(name) || "url".equals(name) || "audioUrl".equals(name)) {
+                        p.skipChildren(); // se reemplazan
+                    } else {
+                        g.writeFieldName(name);
+                        g.copyCurrentStructure(p);
+                    }
+                }
+                String url = MediaStore.urlOf(mediaStore.save(audio, MediaStore.extensionOf(frame.mimeType())));
+                g.writeStringField("type", "audio-url");
+                g.writeStringField("url", url);
+                g.writeEndObject();
+                g.flush();
+
+                offloaded.incrementAndGet();
+                offloadedBytes.addAndGet(audio.length);
+                return new Result(out.toByteArray(), frame.withAudioUrl(url));
+            }
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            System.out.println("[WS] no se pudo sacar el audio inline: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("maxInlineBytes", maxInlineBytes);
+        out.put("offloaded", offloaded.get());
+        out.put("offloadedBytes", offloadedBytes.get());
+        out.put("failures", failures.get());
+        out.put("maxConcurrent", Math.max(1, maxConcurrent));
+        out.put("rejected", rejected.get());
+        return out;
+    }
+}
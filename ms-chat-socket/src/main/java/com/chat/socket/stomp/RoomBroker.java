@@ -0,0 +1,238 @@
+package com.chat.socket.stomp;
+
+import com.chat.socket.concurrent.LaneExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broker STOMP en proceso para /topic (reemplaza a SimpleBrokerMessageHandler).
+ * - Índice exacto destino -> suscripciones: publicar en /topic/{roomId} cuesta
+ *   O(suscriptores de esa sala), sin recorrer las demás ni comparar patrones.
+ * - El reparto corre en carriles por destino (LaneExecutor): una sala siempre cae en el
+ *   mismo hilo y sale en orden; salas distintas van en paralelo. El carril solo encola en el
+ *   canal de salida de cada sesión (con su pool y preservePublishOrder): una sesión lenta se
+ *   atrasa sola, sin frenar el carril ni las otras salas que comparten ese carril.
+ * - El payload llega ya serializado una vez (converter del template) y se comparte entre
+ *   todos los suscriptores; por suscriptor solo se arman los headers.
+ * - Solo destinos exactos: un SUBSCRIBE con comodines queda registrado pero nunca coincide.
+ * - Sin heartbeats del lado del broker (igual que el simple broker sin TaskScheduler).
+ */
+public class RoomBroker extends AbstractBrokerMessageHandler {
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+    private static final long[] NO_HEARTBEAT = {0, 0};
+
+    private record Subscription(String sessionId, String subscriptionId, String destination, MessageChannel out) {}
+
+    private final int laneCount;
+    private LaneExecutor lanes;
+
+    // destino -> suscripciones
+    private final Map<String, Set<Subscription>> byDestination = new ConcurrentHashMap<>();
+    // sesión -> (subscriptionId -> suscripción)
+    private final Map<String, Map<String, Subscription>> bySession = new ConcurrentHashMap<>();
+    // sesión -> su canal de salida ordenado (uno por sesión: el orden se guarda dentro de cada uno)
+    private final Map<String, MessageChannel> outbound = new ConcurrentHashMap<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong unrouted = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public RoomBroker(SubscribableChannel clientInboundChannel, MessageChannel clientOutboundChannel,
+                      SubscribableChannel brokerChannel, Collection<String> destinationPrefixes, int laneCount) {
+        super(clientInboundChannel, clientOutboundChannel, brokerChannel, destinationPrefixes);
+        this.laneCount = laneCount;
+    }
+
+    @Override
+    protected void startInternal() {
+        lanes = new LaneExecutor("StompRoom", laneCount,
+                e -> logger.error("Reparto fallido en el broker: " + e.getMessage(), e));
+        publishBrokerAvailableEvent();
+    }
+
+    @Override
+    protected void stopInternal() {
+        publishBrokerUnavailableEvent();
+        if (lanes != null) {
+            lanes.shutdown();
+        }
+    }
+
+    @Override
+    protected void handleMessageInternal(Message<?> message) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(headers);
+        String destination = SimpMessageHeaderAccessor.getDestination(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (type == null || !checkDestinationPrefix(destination)) {
+            return;
+        }
+        switch (type) {
+            case MESSAGE -> publish(destination, message);
+            case SUBSCRIBE -> subscribe(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers), destination);
+            case UNSUBSCRIBE -> unsubscribe(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers));
+            case CONNECT -> connect(sessionId, message);
+            case DISCONNECT -> disconnect(sessionId, message);
+            default -> {
+            }
+        }
+    }
+
+    // ----- sesiones -----
+
+    private void connect(String sessionId, Message<?> connect) {
+        if (sessionId == null) {
+            return;
+        }
+        bySession.putIfAbsent(sessionId, new ConcurrentHashMap<>());
+        SimpMessageHeaderAccessor ack = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT_ACK);
+        ack.setSessionId(sessionId);
+        Principal user = SimpMessageHeaderAccessor.getUser(connect.getHeaders());
+        if (user != null) {
+            ack.setUser(user);
+        }
+        ack.setHeader(SimpMessageHeaderAccessor.CONNECT_MESSAGE_HEADER, connect);
+        // Mutable: el canal ordenado por sesión le agrega su propio header
+        ack.setLeaveMutable(true);
+        ack.setHeader(SimpMessageHeaderAccessor.HEART_BEAT_HEADER, NO_HEARTBEAT);
+        outboundOf(sessionId).send(MessageBuilder.createMessage(EMPTY_PAYLOAD, ack.getMessageHeaders()));
+    }
+
+    private MessageChannel outboundOf(String sessionId) {
+        return outbound.computeIfAbsent(sessionId, this::getClientOutboundChannelForSession);
+    }
+
+    // También llega al cerrarse el WebSocket sin DISCONNECT (lo sintetiza StompSubProtocolHandler)
+    private void disconnect(String sessionId, Message<?> disconnect) {
+        if (sessionId == null) {
+            return;
+        }
+        MessageChannel out = outbound.remove(sessionId);
+        Map<String, Subscription> subs = bySession.remove(sessionId);
+        if (subs == null) {
+            return;
+        }
+        subs.values().forEach(this::detach);
+        SimpMessageHeaderAccessor ack = SimpMessageHeaderAccessor.create(SimpMessageType.DISCONNECT_ACK);
+        ack.setSessionId(sessionId);
+        Principal user = SimpMessageHeaderAccessor.getUser(disconnect.getHeaders());
+        if (user != null) {
+            ack.setUser(user);
+        }
+        ack.setHeader(SimpMessageHeaderAccessor.DISCONNECT_MESSAGE_HEADER, disconnect);
+        // Mutable: el canal ordenado por sesión le agrega su propio header
+        ack.setLeaveMutable(true);
+        (out != null ? out : getClientOutboundChannelForSession(sessionId))
+                .send(MessageBuilder.createMessage(EMPTY_PAYLOAD, ack.getMessageHeaders()));
+    }
+
+    // ----- suscripciones -----
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        if (sessionId == null || subscriptionId == null || destination == null) {
+            return;
+        }
+        Subscription s = new Subscription(sessionId, subscriptionId, destination, outboundOf(sessionId));
+        Subscription old = bySession.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>()).put(subscriptionId, s);
+        if (old != null) {
+            detach(old);
+        }
+        // Alta dentro de compute(): no se cruza con detach() vaciando el mismo set
+        byDestination.compute(destination, (k, set) -> {
+            Set<Subscription> subs = set != null ? set : ConcurrentHashMap.newKeySet();
+            subs.add(s);
+            return subs;
+        });
+    }
+
+    private void unsubscribe(String sessionId, String subscriptionId) {
+        if (sessionId == null || subscriptionId == null) {
+            return;
+        }
+        Map<String, Subscription> subs = bySession.get(sessionId);
+        Subscription s = subs != null ? subs.remove(subscriptionId) : null;
+        if (s != null) {
+            detach(s);
+        }
+    }
+
+    private void detach(Subscription s) {
+        byDestination.computeIfPresent(s.destination(), (k, set) -> {
+            set.remove(s);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    // ----- reparto -----
+
+    private void publish(String destination, Message<?> message) {
+        if (destination == null) {
+            return;
+        }
+        published.incrementAndGet();
+        if (!byDestination.containsKey(destination)) {
+            unrouted.incrementAndGet();
+            return;
+        }
+        lanes.execute(destination, () -> deliver(destination, message));
+    }
+
+    private void deliver(String destination, Message<?> message) {
+        Set<Subscription> subs = byDestination.get(destination);
+        if (subs == null) {
+            return;
+        }
+        Object payload = message.getPayload();
+        MessageHeaders source = message.getHeaders();
+        for (Subscription s : subs) {
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            headers.setSessionId(s.sessionId());
+            headers.setSubscriptionId(s.subscriptionId());
+            headers.copyHeadersIfAbsent(source);
+            headers.setLeaveMutable(true);
+            try {
+                s.out().send(MessageBuilder.createMessage(payload, headers.getMessageHeaders()));
+                deliveries.incrementAndGet();
+            } catch (RuntimeException e) {
+                // Una sesión rota no corta el reparto al resto de la sala
+                failures.incrementAndGet();
+                logger.debug("No se pudo entregar a la sesión " + s.sessionId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        long subscriptions = 0;
+        for (Set<Subscription> subs : byDestination.values()) {
+            subscriptions += subs.size();
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("sessions", bySession.size());
+        out.put("destinations", byDestination.size());
+        out.put("subscriptions", subscriptions);
+        out.put("published", published.get());
+        out.put("unrouted", unrouted.get());
+        out.put("deliveries", deliveries.get());
+        out.put("failures", failures.get());
+        out.put("lanes", lanes != null ? lanes.stats() : Map.of());
+        return out;
+    }
+}
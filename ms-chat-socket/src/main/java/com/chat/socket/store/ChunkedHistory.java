@@ -0,0 +1,233 @@
+package com.chat.socket.store;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Historial append-only sin locks, en chunks de tamaño fijo.
+ *
+ * - Índice de dos niveles (páginas -> chunks): crecer nunca copia nada. Todo se crea recién
+ *   cuando hace falta; la primera página va aparte, así una conversación de menos de
+ *   PAGE_SIZE * CHUNK_SIZE mensajes no llega a crear el índice de páginas.
+ * - append(): reserva una posición con reserve() y publica el elemento en su slot con
+ *   publish(). Solo puede competir (un CAS) al crear el chunk/página que toca. Quien necesite
+ *   hacer algo entre las dos cosas (MessageStore escribe el log) puede llamarlas por separado.
+ * - Los lectores ven el prefijo publicado (size()) sin tomar ningún lock;
+ *   la posición de un elemento es estable y sirve como cursor.
+ * - Tope de capacity() elementos (como mucho CAPACITY): pasado eso reserve() falla con
+ *   IllegalStateException sin reservar nada.
+ */
+public final class ChunkedHistory<T> {
+
+    private static final int CHUNK_BITS = 7;  // 128 elementos por chunk
+    private static final int PAGE_BITS = 8;   // 256 chunks por página
+    private static final int TOP_BITS = 9;    // 512 páginas
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    public static final int CAPACITY = 1 << (CHUNK_BITS + PAGE_BITS + TOP_BITS);
+
+    private final int capacity;
+
+    // Página 0 e índice de páginas (desde la 1), los dos creados a pedido
+    private final AtomicReference<AtomicReferenceArray<AtomicReferenceArray<T>>> firstPage = new AtomicReference<>();
+    private final AtomicReference<AtomicReferenceArray<AtomicReferenceArray<AtomicReferenceArray<T>>>> pages =
+            new AtomicReference<>();
+
+    // Posiciones reservadas por escritores / prefijo contiguo ya visible para lectores
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicInteger published = new AtomicInteger();
+
+    public ChunkedHistory() {
+        this(CAPACITY);
+    }
+
+    /** Historial con un tope menor que CAPACITY. */
+    public ChunkedHistory(int capacity) {
+        if (capacity < 0 || capacity > CAPACITY) {
+            throw new IllegalArgumentException("capacidad fuera de rango: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /** Agrega al final y devuelve la posición (cursor) del elemento. */
+    public int append(T item) {
+        if (item == null) {
+            throw new IllegalArgumentException("item null");
+        }
+        int idx = reserve(1);
+        publish(idx, item);
+        return idx;
+    }
+
+    /** Falla como fallaría reserve(n), pero sin reservar nada. */
+    public void ensureRoom(int n) {
+        int r = reserved.get();
+        if (n > capacity - r) {
+            throw full();
+        }
+    }
+
+    /**
+     * Reserva n posiciones seguidas y devuelve la primera. Cada una tiene que publicarse
+     * después con publish(); hasta entonces size() no pasa de ahí.
+     */
+    public int reserve(int n) {
+        while (true) {
+            int r = reserved.get();
+            if (n > capacity - r) {
+                throw full();
+            }
+            if (reserved.compareAndSet(r, r + n)) {
+                return r;
+            }
+        }
+    }
+
+    /** Escribe el elemento en una posición reservada y corre el prefijo visible si se puede. */
+    public void publish(int idx, T item) {
+        if (item == null) {
+            throw new IllegalArgumentException("item null");
+        }
+        if (idx < 0 || idx >= reserved.get()) {
+            throw new IndexOutOfBoundsException(idx);
+        }
+        chunk(idx, true).set(idx & CHUNK_MASK, item);
+        advancePublished();
+    }
+
+    /**
+     * Espera a que el prefijo visible cubra idx. Solo puede tardar lo que tarde otro escritor
+     * en publish() una posición anterior que ya reservó (no hay E/S de por medio).
+     */
+    public void awaitVisible(int idx) {
+        for (int spins = 0; published.get() <= idx; spins++) {
+            if (spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Cantidad de elementos visibles (prefijo contiguo publicado). */
+    public int size() {
+        return published.get();
+    }
+
+    public T get(int idx) {
+        if (idx < 0 || idx >= published.get()) {
+            throw new IndexOutOfBoundsException(idx);
+        }
+        return chunk(idx, false).get(idx & CHUNK_MASK);
+    }
+
+    /** Copia [from, to) a un arreglo nuevo; el rango debe estar dentro de size(). */
+    public T[] range(int from, int to, IntFunction<T[]> factory) {
+        T[] out = factory.apply(Math.max(0, to - from));
+        int i = from;
+        while (i < to) {
+            AtomicReferenceArray<T> c = chunk(i, false);
+            int end = Math.min(to, (i & ~CHUNK_MASK) + CHUNK_SIZE);
+            for (; i < end; i++) {
+                out[i - from] = c.get(i & CHUNK_MASK);
+            }
+        }
+        return out;
+    }
+
+    /** Recorre [from, to) sin copiar a un arreglo; el rango debe estar dentro de size(). */
+    public void forEach(int from, int to, Consumer<? super T> action) {
+        int i = from;
+        while (i < to) {
+            AtomicReferenceArray<T> c = chunk(i, false);
+            int end = Math.min(to, (i & ~CHUNK_MASK) + CHUNK_SIZE);
+            for (; i < end; i++) {
+                action.accept(c.get(i & CHUNK_MASK));
+            }
+        }
+    }
+
+    /** Snapshot de todo lo visible en este momento. */
+    public T[] toArray(IntFunction<T[]> factory) {
+        return range(0, size(), factory);
+    }
+
+    // ----- internos -----
+
+    private IllegalStateException full() {
+        return new IllegalStateException("historial lleno (" + capacity + " mensajes)");
+    }
+
+    private AtomicReferenceArray<T> chunk(int idx, boolean create) {
+        int top = idx >>> (CHUNK_BITS + PAGE_BITS);
+        int mid = (idx >>> CHUNK_BITS) & PAGE_MASK;
+
+        AtomicReferenceArray<AtomicReferenceArray<T>> page = page(top, create);
+        if (page == null) {
+            throw new IllegalStateException("página no publicada " + top);
+        }
+        AtomicReferenceArray<T> c = page.get(mid);
+        if (c == null) {
+            if (!create) {
+                throw new IllegalStateException("chunk no publicado " + idx);
+            }
+            page.compareAndSet(mid, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            c = page.get(mid);
+        }
+        return c;
+    }
+
+    // null si la página no existe y create es false
+    private AtomicReferenceArray<AtomicReferenceArray<T>> page(int top, boolean create) {
+        if (top == 0) {
+            AtomicReferenceArray<AtomicReferenceArray<T>> page = firstPage.get();
+            if (page == null && create) {
+                firstPage.compareAndSet(null, new AtomicReferenceArray<>(PAGE_SIZE));
+                page = firstPage.get();
+            }
+            return page;
+        }
+        AtomicReferenceArray<AtomicReferenceArray<AtomicReferenceArray<T>>> index = pages.get();
+        if (index == null) {
+            if (!create) {
+                return null;
+            }
+            pages.compareAndSet(null, new AtomicReferenceArray<>(1 << TOP_BITS));
+            index = pages.get();
+        }
+        AtomicReferenceArray<AtomicReferenceArray<T>> page = index.get(top);
+        if (page == null && create) {
+            index.compareAndSet(top, null, new AtomicReferenceArray<>(PAGE_SIZE));
+            page = index.get(top);
+        }
+        return page;
+    }
+
+    // Avanza el prefijo publicado mientras el siguiente slot ya esté escrito (cualquier
+    // escritor puede ayudar; el que escribió un hueco lo cierra cuando termina).
+    private void advancePublished() {
+        while (true) {
+            int p = published.get();
+            if (p >= reserved.get()) {
+                return;
+            }
+            AtomicReferenceArray<AtomicReferenceArray<T>> page = page(p >>> (CHUNK_BITS + PAGE_BITS), false);
+            AtomicReferenceArray<T> c = page != null ? page.get((p >>> CHUNK_BITS) & PAGE_MASK) : null;
+            if (c == null || c.get(p & CHUNK_MASK) == null) {
+                return;
+            }
+            published.compareAndSet(p, p + 1);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.chat.socket.store;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ids de mensaje vistos recientemente (reintentos del cliente, del proxy o de ICE).
+ * - Particionado en shards con su propio lock: los claim() de distintos ids casi no compiten.
+ * - Cada shard guarda sus ids en orden de llegada; los que superan la ventana se barren
+ *   desde la cabeza en el mismo claim(), sin hilo aparte.
+ * - Acotado: si un shard se llena se descarta su id más viejo aunque siga en la ventana
+ *   (un reintento de ese id ya no se detectaría, pero la memoria no crece).
+ */
+public final class DedupIndex {
+
+    private static final int SHARDS = 16;
+
+    private final long windowMs;
+    private final int maxPerShard;
+    private final Shard[] shards = new Shard[SHARDS];
+
+    private static final class Shard {
+        // id -> instante en que se vio
+        final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+        long duplicates;
+        long evicted;
+    }
+
+    public DedupIndex(long windowMs, int maxEntries) {
+        this.windowMs = windowMs;
+        this.maxPerShard = Math.max(1, maxEntries / SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /** true si es la primera vez que se ve key dentro de la ventana (y lo registra). */
+    public boolean claim(String key, long now) {
+        Shard s = shardOf(key);
+        synchronized (s) {
+            expire(s, now);
+            if (s.seen.containsKey(key)) {
+                s.duplicates++;
+                return false;
+            }
+            s.seen.put(key, now);
+            if (s.seen.size() > maxPerShard) {
+                Iterator<String> it = s.seen.keySet().iterator();
+                it.next();
+                it.remove();
+                s.evicted++;
+            }
+            return true;
+        }
+    }
+
+    /** Olvida key: el guardado que la reclamó falló y un reintento tiene que poder pasar. */
+    public void release(String key) {
+        Shard s = shardOf(key);
+        synchronized (s) {
+            s.seen.remove(key);
+        }
+    }
+
+    private Shard shardOf(String key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
+
+    private void expire(Shard s, long now) {
+        Iterator<Map.Entry<String, Long>> it = s.seen.entrySet().iterator();
+        while (it.hasNext() && now - it.next().getValue() >= windowMs) {
+            it.remove();
+        }
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        long entries = 0;
+        long duplicates = 0;
+        long evicted = 0;
+        for (Shard s : shards) {
+            synchronized (s) {
+                entries += s.seen.size();
+                duplicates += s.duplicates;
+                evicted += s.evicted;
+            }
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("entries", entries);
+        out.put("windowMs", windowMs);
+        out.put("maxEntries", (long) maxPerShard * SHARDS);
+        out.put("duplicates", duplicates);
+        out.put("evicted", evicted);
+        return out;
+    }
+}
@@ -0,0 +1,88 @@
+package com.chat.socket.store;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * LRU acotado por peso con el historial ya preparado (bytes serializados, arreglos, ...)
+ * de cada conversación, válido para una versión concreta (ver MessageStore.version()).
+ * - Solo se guarda la última versión por conversación: las anteriores no le sirven a nadie.
+ * - El loader corre fuera del lock; si dos hilos cargan la misma versión, gana cualquiera.
+ * - Un valor más pesado que todo el presupuesto se devuelve pero no se guarda.
+ */
+public final class HistoryCache<V> {
+
+    private record Entry<V>(int version, V value, int weight) {}
+
+    private final long maxWeight;
+    private final ToIntFunction<V> weigher;
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long weight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public HistoryCache(long maxWeight, ToIntFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    public V get(String key, int version, Supplier<V> loader) {
+        synchronized (this) {
+            Entry<V> e = entries.get(key);
+            if (e != null && e.version() == version) {
+                hits++;
+                return e.value();
+            }
+            misses++;
+        }
+
+        V value = loader.get();
+        int w = weigher.applyAsInt(value);
+        if (w > maxWeight) {
+            return value;
+        }
+        synchronized (this) {
+            Entry<V> old = entries.get(key);
+            if (old != null && old.version() > version) {
+                return value; // alguien ya guardó algo más nuevo
+            }
+            if (old != null) {
+                weight -= old.weight();
+            }
+            entries.put(key, new Entry<>(version, value, w));
+            weight += w;
+
+            Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+            while (weight > maxWeight && it.hasNext()) {
+                Map.Entry<String, Entry<V>> eldest = it.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                weight -= eldest.getValue().weight();
+                it.remove();
+                evictions++;
+            }
+        }
+        return value;
+    }
+
+    // ----- métricas -----
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("entries", entries.size());
+        out.put("weight", weight);
+        out.put("maxWeight", maxWeight);
+        out.put("hits", hits);
+        out.put("misses", misses);
+        out.put("evictions", evictions);
+        long total = hits + misses;
+        out.put("hitRate", total == 0 ? 0.0 : (double) hits / total);
+        return out;
+    }
+}
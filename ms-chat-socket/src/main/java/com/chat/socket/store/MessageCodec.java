@@ -0,0 +1,106 @@
+package com.chat.socket.store;
+
+import chat.Message;
+import chat.MessageType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codificación binaria compacta de chat.Message:
+ * strings como [int len][utf-8] (len = -1 para null), type como byte,
+ * createdAt como long y duration como double.
+ */
+public final class MessageCodec {
+
+    private MessageCodec() {
+    }
+
+    public static int encodedSize(Message m) {
+        return strSize(m.id) + strSize(m.from) + strSize(m.to) + strSize(m.scope)
+                + 1
+                + strSize(m.text) + strSize(m.audioUrl)
+                + 8
+                + strSize(m.mimeType)
+                + 8;
+    }
+
+    public static void encode(Message m, ByteBuffer out) {
+        putStr(out, m.id);
+        putStr(out, m.from);
+        putStr(out, m.to);
+        putStr(out, m.scope);
+        out.put((byte) (m.type != null ? m.type.value() : 0));
+        putStr(out, m.text);
+        putStr(out, m.audioUrl);
+        out.putLong(m.createdAt);
+        putStr(out, m.mimeType);
+        out.putDouble(m.duration);
+    }
+
+    public static byte[] encode(Message m) {
+        ByteBuffer b = ByteBuffer.allocate(encodedSize(m));
+        encode(m, b);
+        return b.array();
+    }
+
+    public static Message decode(ByteBuffer in) {
+        Message m = new Message();
+        m.id = getStr(in);
+        m.from = getStr(in);
+        m.to = getStr(in);
+        m.scope = getStr(in);
+        m.type = MessageType.valueOf(in.get());
+        m.text = getStr(in);
+        m.audioUrl = getStr(in);
+        m.createdAt = in.getLong();
+        m.mimeType = getStr(in);
+        m.duration = in.getDouble();
+        return m;
+    }
+
+    // ----- strings -----
+
+    private static int strSize(String s) {
+        return 4 + (s == null ? 0 : utf8Length(s));
+    }
+
+    private static void putStr(ByteBuffer out, String s) {
+        if (s == null) {
+            out.putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getStr(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Longitud UTF-8 sin crear el arreglo de bytes
+    private static int utf8Length(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                n += 1;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else {
+                n += 3;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,358 @@
+package com.chat.socket.store;
+
+import chat.Message;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Log de mensajes persistente, append-only, en segmentos mapeados a memoria.
+ *
+ * Formato de cada registro: [int len][int crc32][byte source][Message codificado]
+ * (len cuenta desde source; len = 0 marca el final de los datos del segmento).
+ * source lleva el adaptador en los bits bajos y la marca CLIENT_ID en el bit alto.
+ *
+ * - append() solo copia al segmento mapeado; no hace fsync.
+ * - Las variantes con ChunkedHistory reservan la posición en memoria del mensaje con el mismo
+ *   lock que ordena los registros: el orden de las posiciones es el orden del log.
+ * - Un hilo de commit fuerza a disco lo escrito cada commitWindowMs (group commit).
+ * - Al arrancar se verifican los CRC y se trunca en el primer registro roto.
+ */
+@Component
+public class MessageLog {
+
+    /** Origen del mensaje (adaptador que lo escribió). */
+    public static final byte SOURCE_ICE = 0;
+    public static final byte SOURCE_TCP = 1;
+    public static final byte SOURCE_STOMP = 2;
+
+    /** Marca en source: el id del mensaje lo eligió el cliente (se vuelve a reclamar al arrancar). */
+    public static final byte CLIENT_ID = (byte) 0x80;
+
+    /** source del adaptador, con CLIENT_ID si el id vino del cliente. */
+    public static byte source(byte adapter, boolean clientId) {
+        return clientId ? (byte) (adapter | CLIENT_ID) : adapter;
+    }
+
+    public interface Replayer {
+        void accept(byte source, Message m);
+    }
+
+    private static final int HEADER = 8;
+
+    @Value("${chat.log.dir:data/log}")
+    private String dir;
+
+    @Value("${chat.log.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${chat.log.commit-window-ms:10}")
+    private long commitWindowMs;
+
+    private Path root;
+
+    // Segmento actual de escritura; protegidos por "this"
+    private long currentSeq;
+    private MappedByteBuffer current;
+    private int writePos;
+    private int dirtyFrom = -1;
+
+    private Thread committer;
+    private volatile boolean running;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong truncatedBytes = new AtomicLong();
+
+    @PostConstruct
+    public void open() throws IOException {
+        root = Paths.get(dir);
+        Files.createDirectories(root);
+
+        List<Long> seqs = segmentSeqs();
+        if (seqs.isEmpty()) {
+            openSegment(0, 0);
+        } else {
+            recover(seqs);
+        }
+
+        running = true;
+        committer = new Thread(this::commitLoop, "MessageLogCommit");
+        committer.setDaemon(true);
+        committer.start();
+        System.out.println("[LOG] message log en " + root.toAbsolutePath() + " seg=" + currentSeq + " pos=" + writePos);
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        if (committer != null) {
+            committer.interrupt();
+        }
+        commit();
+    }
+
+    // ----- escritura -----
+
+    public void append(byte source, Message m) {
+        appendAll(source, List.of(m), null);
+    }
+
+    /** Escribe varios registros seguidos tomando el lock una sola vez (lotes del adaptador TCP). */
+    public void appendAll(byte source, List<Message> ms) {
+        appendAll(source, ms, null);
+    }
+
+    /**
+     * Escribe el registro y reserva su posición en slots sin soltar el lock del log. Si slots
+     * no tiene lugar falla antes de escribir nada. Devuelve la posición: la publica el que llama.
+     */
+    public int append(byte source, Message m, ChunkedHistory<?> slots) {
+        return appendAll(source, List.of(m), slots);
+    }
+
+    /** Como append(source, m, slots) para varios mensajes; devuelve la primera posición. */
+    public int appendAll(byte source, List<Message> ms, ChunkedHistory<?> slots) {
+        byte[] sources = new byte[ms.size()];
+        Arrays.fill(sources, source);
+        return appendAll(sources, ms, slots);
+    }
+
+    /** Como appendAll(source, ms, slots) con un source por mensaje. */
+    public int appendAll(byte[] sources, List<Message> ms, ChunkedHistory<?> slots) {
+        int[] lens = new int[ms.size()];
+        for (int i = 0; i < lens.length; i++) {
+            lens[i] = recordLength(ms.get(i));
+        }
+        int first = -1;
+        synchronized (this) {
+            if (slots != null) {
+                slots.ensureRoom(lens.length);
+            }
+            for (int i = 0; i < lens.length; i++) {
+                writeRecord(sources[i], ms.get(i), lens[i]);
+            }
+            // Todas las reservas de la conversación pasan por este lock: ensureRoom sigue valiendo
+            if (slots != null) {
+                first = slots.reserve(lens.length);
+            }
+        }
+        appended.addAndGet(lens.length);
+        return first;
+    }
+
+    /** Lanza IllegalArgumentException si el mensaje no entra en un segmento (no escribe nada). */
+    void checkSize(Message m) {
+        recordLength(m);
+    }
+
+    private int recordLength(Message m) {
+        int len = 1 + MessageCodec.encodedSize(m);
+        if (HEADER + len + 4 > segmentBytes) {
+            throw new IllegalArgumentException("mensaje demasiado grande para el log: " + len + " bytes");
+        }
+        return len;
+    }
+
+    // Llamar con el lock tomado
+    private void writeRecord(byte source, Message m, int len) {
+        // Se dejan 4 bytes en cero al final para marcar el fin del segmento
+        if (writePos + HEADER + len + 4 > segmentBytes) {
+            rollSegment();
+        }
+        ByteBuffer rec = current.duplicate();
+        rec.position(writePos + HEADER);
+        rec.put(source);
+        MessageCodec.encode(m, rec);
+
+        CRC32 crc = new CRC32();
+        crc.update(current.duplicate().position(writePos + HEADER).limit(writePos + HEADER + len));
+        current.putInt(writePos + 4, (int) crc.getValue());
+        // La longitud se escribe al final: un registro sin longitud es un registro inexistente
+        current.putInt(writePos, len);
+
+        if (dirtyFrom < 0) {
+            dirtyFrom = writePos;
+        }
+        writePos += HEADER + len;
+    }
+
+    // ----- group commit -----
+
+    private void commitLoop() {
+        while (running) {
+            try {
+                Thread.sleep(commitWindowMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            commit();
+        }
+    }
+
+    /** Fuerza a disco lo escrito desde el último commit. */
+    public void commit() {
+        MappedByteBuffer buf;
+        int from;
+        int to;
+        synchronized (this) {
+            if (dirtyFrom < 0 || current == null) {
+                return;
+            }
+            buf = current;
+            from = dirtyFrom;
+            to = writePos;
+            dirtyFrom = -1;
+        }
+        buf.force(from, to - from);
+        commits.incrementAndGet();
+    }
+
+    // Llamar con el lock tomado
+    private void rollSegment() {
+        if (dirtyFrom >= 0) {
+            current.force(dirtyFrom, writePos - dirtyFrom);
+            dirtyFrom = -1;
+        }
+        try {
+            openSegment(currentSeq + 1, 0);
+        } catch (IOException e) {
+            throw new IllegalStateException("no se pudo crear el segmento " + (currentSeq + 1), e);
+        }
+    }
+
+    private void openSegment(long seq, int pos) throws IOException {
+        current = map(seq);
+        currentSeq = seq;
+        writePos = pos;
+    }
+
+    private MappedByteBuffer map(long seq) throws IOException {
+        try (FileChannel ch = FileChannel.open(segmentPath(seq),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // El mapeo sigue vigente después de cerrar el canal
+            return ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    // ----- recuperación y lectura -----
+
+    private void recover(List<Long> seqs) throws IOException {
+        for (int i = 0; i < seqs.size(); i++) {
+            long seq = seqs.get(i);
+            MappedByteBuffer buf = map(seq);
+            int end = scan(buf, null);
+            boolean torn = end + 4 <= segmentBytes && buf.getInt(end) != 0;
+            boolean lastSegment = i == seqs.size() - 1;
+
+            if (torn || lastSegment) {
+                if (torn) {
+                    truncate(buf, end);
+                    // Todo lo posterior al registro roto se descarta
+                    for (int j = i + 1; j < seqs.size(); j++) {
+                        Files.deleteIfExists(segmentPath(seqs.get(j)));
+                    }
+                    System.out.println("[LOG] registro roto en seg=" + seq + " pos=" + end + ", log truncado");
+                }
+                current = buf;
+                currentSeq = seq;
+                writePos = end;
+                return;
+            }
+        }
+    }
+
+    private void truncate(MappedByteBuffer buf, int from) {
+        byte[] zeros = new byte[8192];
+        int pos = from;
+        while (pos < segmentBytes) {
+            int n = Math.min(zeros.length, segmentBytes - pos);
+            buf.put(pos, zeros, 0, n);
+            pos += n;
+        }
+        buf.force();
+        truncatedBytes.addAndGet(segmentBytes - from);
+    }
+
+    /**
+     * Recorre los registros válidos del segmento y devuelve la posición donde terminan
+     * (primer registro vacío, incompleto o con CRC inválido).
+     */
+    private int scan(ByteBuffer buf, Replayer replayer) {
+        int pos = 0;
+        CRC32 crc = new CRC32();
+        while (pos + HEADER <= segmentBytes) {
+            int len = buf.getInt(pos);
+            if (len <= 0 || pos + HEADER + len > segmentBytes) {
+                return pos;
+            }
+            ByteBuffer body = buf.duplicate().position(pos + HEADER).limit(pos + HEADER + len);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buf.getInt(pos + 4)) {
+                return pos;
+            }
+            if (replayer != null) {
+                byte source = body.get();
+                replayer.accept(source, MessageCodec.decode(body));
+            }
+            pos += HEADER + len;
+        }
+        return pos;
+    }
+
+    /** Reproduce todos los registros en orden (se usa al arrancar para reconstruir los historiales). */
+    public void replay(Replayer replayer) {
+        try {
+            for (long seq : segmentSeqs()) {
+                scan(map(seq), replayer);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("no se pudo leer el log", e);
+        }
+    }
+
+    private Path segmentPath(long seq) {
+        return root.resolve(String.format("%012d.log", seq));
+    }
+
+    private List<Long> segmentSeqs() throws IOException {
+        List<Long> out = new ArrayList<>();
+        try (Stream<Path> files = Files.list(root)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.matches("\\d{12}\\.log"))
+                    .sorted()
+                    .forEach(n -> out.add(Long.parseLong(n.substring(0, 12))));
+        }
+        return out;
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        synchronized (this) {
+            out.put("segment", currentSeq);
+            out.put("position", writePos);
+        }
+        out.put("appended", appended.get());
+        out.put("commits", commits.get());
+        out.put("truncatedBytes", truncatedBytes.get());
+        return out;
+    }
+}
@@ -0,0 +1,271 @@
+package com.chat.socket.store;
+
+import chat.HistoryPage;
+import chat.Message;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Historial único de mensajes, compartido por ICE, el adaptador TCP JSON y STOMP.
+ * - Representación interna: chat.Message (struct tipado, sin árboles JSON) en un
+ *   ChunkedHistory por conversación: las lecturas no toman ningún lock.
+ * - Conversaciones por scope: "group" -> groupId, "user" -> userId destino.
+ * - Cada append escribe el registro en el MessageLog y, con el mismo lock del log, reserva su
+ *   posición en la conversación; recién después la publica en memoria (sin lock). Lo que se
+ *   ve ya está en el log y en el mismo orden, así que los cursores siguen valiendo después de
+ *   reiniciar. No hay lock por conversación: escritores de la misma conversación solo
+ *   comparten el lock del log (que ya ordenaba los registros).
+ * - Al volver append() el mensaje ya es visible (read-your-writes): si otro escritor reservó
+ *   una posición anterior, se espera a que termine su publish().
+ * - Los AppendListener se enteran de qué conversación cambió (no del mensaje): leen lo nuevo
+ *   con since() a partir de su cursor, así nunca ven huecos ni desorden.
+ * - Envíos idempotentes: el adaptador reclama (from, id de cliente) con claim() antes de
+ *   guardar; un reintento dentro de la ventana se confirma sin guardar ni avisar de nuevo.
+ *   Si el append falla, el adaptador suelta el id con release() para que el reintento pase.
+ *   El adaptador marca esos mensajes con MessageLog.CLIENT_ID: load() solo reclama esos ids.
+ */
+@Component
+public class MessageStore {
+
+    public static final String GROUP = "group";
+    public static final String USER = "user";
+
+    private static final ChunkedHistory<Message> EMPTY = new ChunkedHistory<>();
+
+    /** Aviso de que una conversación tiene mensajes nuevos (corre en el hilo que hizo el append). */
+    public interface AppendListener {
+        void onAppend(String scope, String id);
+    }
+
+    private final MessageLog log;
+    private final List<AppendListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Map<String, ChunkedHistory<Message>> groups = new ConcurrentHashMap<>();
+    private final Map<String, ChunkedHistory<Message>> users = new ConcurrentHashMap<>();
+
+    // Ventana y tope de ids de cliente recordados para descartar reintentos
+    @Value("${chat.store.dedup-window-ms:600000}")
+    private long dedupWindowMs;
+
+    @Value("${chat.store.dedup-max-entries:1048576}")
+    private int dedupMaxEntries;
+
+    private DedupIndex dedup;
+
+    // Tope de mensajes por conversación (como mucho ChunkedHistory.CAPACITY)
+    @Value("${chat.store.max-conversation-messages:16777216}")
+    private int maxConversationMessages = ChunkedHistory.CAPACITY;
+
+    public MessageStore(MessageLog log) {
+        this.log = log;
+    }
+
+    @PostConstruct
+    public void load() {
+        dedup = new DedupIndex(dedupWindowMs, dedupMaxEntries);
+        long now = System.currentTimeMillis();
+        log.replay((source, m) -> {
+            appendInMemory(m);
+            // Tras reiniciar se siguen reconociendo los reintentos de lo guardado hace poco
+            // (solo ids del cliente: los generados acá nadie los reintenta)
+            if ((source & MessageLog.CLIENT_ID) != 0 && m.id != null && !m.id.isEmpty()
+                    && now - m.createdAt < dedupWindowMs) {
+                dedup.claim(dedupKey(m.from, m.id), Math.min(now, m.createdAt));
+            }
+        });
+    }
+
+    /** Normaliza el scope ("group" o "user"); cualquier otro valor se trata como DM. */
+    public static String scopeOf(String scopeOrToType) {
+        return GROUP.equalsIgnoreCase(scopeOrToType) ? GROUP : USER;
+    }
+
+    // ----- escritura -----
+
+    public void ensureConversation(String scope, String id) {
+        conversation(scope, id);
+    }
+
+    /**
+     * Reclama el id que el cliente le puso a su mensaje (se guarda en Message.id).
+     * false = ya se vio dentro de la ventana: es un reintento y no hay que guardarlo.
+     */
+    public boolean claim(String from, String clientMsgId) {
+        return dedup.claim(dedupKey(from, clientMsgId), System.currentTimeMillis());
+    }
+
+    /** Deshace un claim() cuyo append falló (el mensaje no quedó guardado). */
+    public void release(String from, String clientMsgId) {
+        dedup.release(dedupKey(from, clientMsgId));
+    }
+
+    private static String dedupKey(String from, String clientMsgId) {
+        return from + "\n" + clientMsgId;
+    }
+
+    /**
+     * Guarda el mensaje (log + memoria). source identifica el adaptador de origen.
+     * Si el log lo rechaza (demasiado grande, error de E/S) o la conversación está llena
+     * (IllegalStateException) la excepción sale de acá y el mensaje no llega a ser visible.
+     */
+    public void append(byte source, Message m) {
+        m.scope = scopeOf(m.scope);
+        ChunkedHistory<Message> list = conversation(m.scope, m.to);
+        // Si la conversación está llena falla antes de escribir: el log no guarda lo que no se publica
+        int idx = log.append(source, m, list);
+        list.publish(idx, m);
+        list.awaitVisible(idx);
+        notifyAppend(m.scope, m.to);
+    }
+
+    /**
+     * Guarda varios mensajes de una vez: un solo paso por el log y una sola búsqueda de
+     * conversación por cada tramo consecutivo con el mismo destino. Los tamaños se validan
+     * antes de escribir nada, así un mensaje rechazado no deja el lote guardado a medias.
+     */
+    public void appendAll(byte source, List<Message> ms) {
+        byte[] sources = new byte[ms.size()];
+        Arrays.fill(sources, source);
+        appendAll(sources, ms);
+    }
+
+    /** Como appendAll(source, ms) con un source por mensaje (sources[i] es el de ms.get(i)). */
+    public void appendAll(byte[] sources, List<Message> ms) {
+        for (Message m : ms) {
+            m.scope = scopeOf(m.scope);
+            log.checkSize(m);
+        }
+        int i = 0;
+        while (i < ms.size()) {
+            Message first = ms.get(i);
+            int j = i + 1;
+            while (j < ms.size() && ms.get(j).scope.equals(first.scope) && ms.get(j).to.equals(first.to)) {
+                j++;
+            }
+            List<Message> run = ms.subList(i, j);
+            ChunkedHistory<Message> list = conversation(first.scope, first.to);
+            int idx = log.appendAll(Arrays.copyOfRange(sources, i, j), run, list);
+            for (int k = 0; k < run.size(); k++) {
+                list.publish(idx + k, run.get(k));
+            }
+            list.awaitVisible(idx + run.size() - 1);
+            notifyAppend(first.scope, first.to);
+            i = j;
+        }
+    }
+
+    private ChunkedHistory<Message> conversation(String scope, String id) {
+        return conversations(scope).computeIfAbsent(id,
+                k -> new ChunkedHistory<>(Math.min(maxConversationMessages, ChunkedHistory.CAPACITY)));
+    }
+
+    private void appendInMemory(Message m) {
+        conversation(m.scope, m.to).append(m);
+    }
+
+    // ----- suscripciones -----
+
+    public void addListener(AppendListener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(AppendListener l) {
+        listeners.remove(l);
+    }
+
+    private void notifyAppend(String scope, String id) {
+        for (AppendListener l : listeners) {
+            try {
+                l.onAppend(scope, id);
+            } catch (RuntimeException e) {
+                System.out.println("[STORE] listener falló en " + scope + "/" + id + ": " + e);
+            }
+        }
+    }
+
+    // ----- lectura -----
+
+    public boolean exists(String scope, String id) {
+        return conversations(scope).containsKey(id);
+    }
+
+    /** Mensajes visibles en la conversación; el último tiene cursor size() - 1. */
+    public int size(String scope, String id) {
+        return list(scope, id).size();
+    }
+
+    /**
+     * Versión de la conversación: sube en 1 con cada append y no vuelve atrás (también tras
+     * reiniciar, porque el log se reproduce entero y en el mismo orden que la memoria). Los
+     * primeros version() mensajes son siempre los mismos, así que sirve de clave para cachear
+     * el historial serializado.
+     */
+    public int version(String scope, String id) {
+        return list(scope, id).size();
+    }
+
+    public Message[] history(String scope, String id) {
+        return list(scope, id).toArray(Message[]::new);
+    }
+
+    /** Los primeros count mensajes (el historial tal como era en la versión count). */
+    public Message[] history(String scope, String id, int count) {
+        ChunkedHistory<Message> list = list(scope, id);
+        return list.range(0, Math.min(count, list.size()), Message[]::new);
+    }
+
+    /** Recorre en orden los primeros count mensajes (p. ej. count = version()), sin copiarlos. */
+    public void forEach(String scope, String id, int count, Consumer<Message> action) {
+        ChunkedHistory<Message> list = list(scope, id);
+        list.forEach(0, Math.min(count, list.size()), action);
+    }
+
+    /**
+     * Hasta limit mensajes anteriores a beforeCursor (-1 = los más recientes). El cursor es la
+     * posición; la página lleva el cursor de su primer mensaje.
+     */
+    public HistoryPage page(String scope, String id, long beforeCursor, int limit) {
+        ChunkedHistory<Message> list = list(scope, id);
+        int size = list.size();
+        int end = beforeCursor < 0 || beforeCursor > size ? size : (int) beforeCursor;
+        int start = Math.max(0, end - Math.max(0, limit));
+        return new HistoryPage(start, list.range(start, end, Message[]::new));
+    }
+
+    /** Hasta limit mensajes posteriores a afterCursor (-1 = desde el inicio). */
+    public HistoryPage since(String scope, String id, long afterCursor, int limit) {
+        ChunkedHistory<Message> list = list(scope, id);
+        int size = list.size();
+        // Se acota contra size antes de sumar: afterCursor y limit pueden venir en su máximo
+        int start = afterCursor < 0 ? 0 : (int) Math.min(afterCursor, size - 1L) + 1;
+        int end = (int) Math.min(size, (long) start + Math.max(0, limit));
+        return new HistoryPage(start, list.range(start, end, Message[]::new));
+    }
+
+    private ChunkedHistory<Message> list(String scope, String id) {
+        return conversations(scope).getOrDefault(id, EMPTY);
+    }
+
+    private Map<String, ChunkedHistory<Message>> conversations(String scope) {
+        return GROUP.equals(scopeOf(scope)) ? groups : users;
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("groups", groups.size());
+        out.put("users", users.size());
+        out.put("dedup", dedup.stats());
+        return out;
+    }
+}
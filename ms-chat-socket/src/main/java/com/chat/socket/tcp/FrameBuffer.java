@@ -0,0 +1,37 @@
+package com.chat.socket.tcp;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Buffer de salida de un frame: begin() deja lugar para el prefijo de largo (formatos
+ * binarios) y finish() lo completa, o agrega el '\n' en JSON. reset() conserva la capacidad.
+ */
+final class FrameBuffer extends ByteArrayOutputStream {
+
+    FrameBuffer(int size) {
+        super(size);
+    }
+
+    FrameBuffer begin(WireFormat format) {
+        reset();
+        if (format.framed()) {
+            for (int i = 0; i < WireFormat.LENGTH_PREFIX; i++) {
+                write(0);
+            }
+        }
+        return this;
+    }
+
+    byte[] finish(WireFormat format) {
+        if (format.framed()) {
+            int len = count - WireFormat.LENGTH_PREFIX;
+            buf[0] = (byte) (len >>> 24);
+            buf[1] = (byte) (len >>> 16);
+            buf[2] = (byte) (len >>> 8);
+            buf[3] = (byte) len;
+        } else {
+            write('\n');
+        }
+        return toByteArray();
+    }
+}
@@ -0,0 +1,143 @@
+package com.chat.socket.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hilo de I/O con su propio Selector.
+ * - Todo lo que toca las conexiones registradas corre en este hilo (tareas vía execute()).
+ * - Los buffers directos de lectura y escritura son del loop y se reutilizan en cada evento.
+ * - Un error en una tarea o en una conexión se atrapa ahí mismo: las demás keys de la
+ *   vuelta se siguen atendiendo.
+ */
+final class IoLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuf;
+    private final ByteBuffer writeBuf;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    IoLoop(String name, int bufferBytes) throws IOException {
+        this.selector = Selector.open();
+        this.readBuf = ByteBuffer.allocateDirect(bufferBytes);
+        this.writeBuf = ByteBuffer.allocateDirect(bufferBytes);
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /** Ejecuta la tarea en el hilo del loop. */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /** Escucha aceptaciones de un ServerSocketChannel; onAccept corre en este hilo. */
+    void listen(ServerSocketChannel server, Consumer<SocketChannel> onAccept) {
+        execute(() -> {
+            try {
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT, onAccept);
+            } catch (IOException e) {
+                System.out.println("[TCP] no se pudo escuchar: " + e.getMessage());
+            }
+        });
+    }
+
+    void register(TcpConnection conn) {
+        execute(() -> {
+            try {
+                conn.channel().configureBlocking(false);
+                conn.attach(conn.channel().register(selector, SelectionKey.OP_READ, conn));
+            } catch (IOException e) {
+                conn.close();
+            }
+        });
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                System.out.println("[TCP] select falló: " + e.getMessage());
+                continue;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.out.println("[TCP] tarea del loop fallida: " + e);
+                }
+            }
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                try {
+                    handle(key);
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("[TCP] error atendiendo una conexión: " + e);
+                    if (key.attachment() instanceof TcpConnection conn) {
+                        conn.close();
+                    }
+                }
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            try { key.channel().close(); } catch (IOException ignored) {}
+        }
+        try { selector.close(); } catch (IOException ignored) {}
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        Object att = key.attachment();
+        if (key.isAcceptable()) {
+            SocketChannel ch = ((ServerSocketChannel) key.channel()).accept();
+            if (ch != null) {
+                ((Consumer<SocketChannel>) att).accept(ch);
+            }
+            return;
+        }
+        TcpConnection conn = (TcpConnection) att;
+        if (key.isReadable()) {
+            conn.onReadable(readBuf);
+        }
+        if (key.isValid() && key.isWritable()) {
+            conn.flush(writeBuf);
+        }
+    }
+
+    ByteBuffer writeBuffer() {
+        return writeBuf;
+    }
+}
@@ -0,0 +1,405 @@
+package com.chat.socket.tcp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Estado de una conexión del adaptador TCP JSON.
+ * - Lectura, framing y escritura corren en el hilo de su IoLoop.
+ * - Las líneas completas se encolan y un worker las procesa en orden (una tanda a la vez
+ *   por conexión), así las respuestas salen en el mismo orden que las peticiones.
+ * - send() se puede llamar desde cualquier hilo: la escritura siempre la hace el loop.
+ */
+final class TcpConnection {
+
+    /** Procesa una línea y devuelve la respuesta ya serializada (con el '\n' final). */
+    interface Handler {
+        byte[] handle(TcpConnection conn, byte[] line);
+    }
+
+    private final SocketChannel channel;
+    private final IoLoop loop;
+    private final TcpJsonServer server;
+    private final int maxFrameBytes;
+    private SelectionKey key;
+
+    // Framing incremental: bytes de la línea/frame en curso (solo hilo del loop)
+    private byte[] partial = new byte[256];
+    private int partialLen;
+    private int frameLen = -1;
+    private long framesSeen;
+    // JSON por líneas salvo que la primera línea negocie otro formato (ver WireFormat)
+    private volatile WireFormat format = WireFormat.JSON;
+
+    // Salida pendiente (solo hilo del loop) y respuestas todavía en camino hacia el loop
+    private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+    private final AtomicInteger inTransit = new AtomicInteger();
+    // Bytes aceptados por send() que todavía no salieron al socket
+    private final AtomicLong pendingBytes = new AtomicLong();
+    // Un productor sin petición (suscripciones) espera a que la salida baje de drainBelow
+    private final AtomicBoolean awaitingDrain = new AtomicBoolean();
+    private volatile long drainBelow;
+    private volatile Runnable onDrained;
+
+    // Peticiones pendientes de procesar (guardado por this)
+    private final ArrayDeque<byte[]> requests = new ArrayDeque<>();
+    private boolean processing;
+    // Acción a correr justo después de encolar la respuesta actual (solo la tanda dueña la toca)
+    private Runnable afterResponse;
+
+    private boolean inputClosed;
+    // Se puede cerrar desde el loop, los workers o el hilo de una suscripción: cierra uno solo
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    TcpConnection(SocketChannel channel, IoLoop loop, TcpJsonServer server, int maxFrameBytes) {
+        this.channel = channel;
+        this.loop = loop;
+        this.server = server;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    WireFormat format() {
+        return format;
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    // ----- lectura (hilo del loop) -----
+
+    void onReadable(ByteBuffer readBuf) {
+        int n;
+        try {
+            readBuf.clear();
+            n = channel.read(readBuf);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (n < 0) {
+            // El cliente terminó de mandar: se cierra cuando salgan las respuestas pendientes
+            inputClosed = true;
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            closeIfDone();
+            return;
+        }
+        readBuf.flip();
+
+        // El handshake binario puede cambiar el framing a mitad de este mismo buffer
+        while (readBuf.hasRemaining() && !inputClosed) {
+            boolean more = format.framed() ? readFrame(readBuf) : readLine(readBuf);
+            if (!more) {
+                break;
+            }
+        }
+    }
+
+    // Texto: acumula hasta '\n'; false = se consumió todo sin completar la línea
+    private boolean readLine(ByteBuffer readBuf) {
+        int start = readBuf.position();
+        int limit = readBuf.limit();
+        int nl = -1;
+        for (int i = start; i < limit; i++) {
+            if (readBuf.get(i) == '\n') {
+                nl = i;
+                break;
+            }
+        }
+        int chunk = (nl < 0 ? limit : nl) - start;
+        if (partialLen + chunk > maxFrameBytes) {
+            tooLarge();
+            return false;
+        }
+        ensurePartial(partialLen + chunk);
+        readBuf.get(partial, partialLen, chunk);
+        partialLen += chunk;
+        if (nl < 0) {
+            return false;
+        }
+        readBuf.get(); // '\n'
+        onLine();
+        return true;
+    }
+
+    // Binario: [largo int32][payload]; false = faltan bytes
+    private boolean readFrame(ByteBuffer readBuf) {
+        if (frameLen < 0) {
+            while (partialLen < WireFormat.LENGTH_PREFIX && readBuf.hasRemaining()) {
+                partial[partialLen++] = readBuf.get();
+            }
+            if (partialLen < WireFormat.LENGTH_PREFIX) {
+                return false;
+            }
+            frameLen = ((partial[0] & 0xff) << 24) | ((partial[1] & 0xff) << 16)
+                    | ((partial[2] & 0xff) << 8) | (partial[3] & 0xff);
+            partialLen = 0;
+            if (frameLen < 0 || frameLen > maxFrameBytes) {
+                tooLarge();
+                return false;
+            }
+        }
+        int chunk = Math.min(frameLen - partialLen, readBuf.remaining());
+        ensurePartial(frameLen);
+        readBuf.get(partial, partialLen, chunk);
+        partialLen += chunk;
+        if (partialLen < frameLen) {
+            return false;
+        }
+        byte[] frame = Arrays.copyOf(partial, frameLen);
+        partialLen = 0;
+        frameLen = -1;
+        if (frame.length > 0) {
+            onFrame(frame);
+        }
+        return true;
+    }
+
+    private void tooLarge() {
+        send(server.frameTooLarge(format));
+        inputClosed = true;
+        closeIfDone();
+    }
+
+    private void ensurePartial(int needed) {
+        if (needed > partial.length) {
+            partial = Arrays.copyOf(partial, Math.max(needed, partial.length * 2));
+        }
+    }
+
+    private void onLine() {
+        int len = partialLen;
+        if (len > 0 && partial[len - 1] == '\r') {
+            len--;
+        }
+        partialLen = 0;
+        if (isBlank(partial, len)) {
+            return;
+        }
+        byte[] line = Arrays.copyOf(partial, len);
+        if (framesSeen == 0) {
+            byte[][] reply = new byte[1][];
+            WireFormat negotiated = server.handshake(line, reply);
+            if (negotiated != null) {
+                send(reply[0]);
+                format = negotiated;
+                return;
+            }
+        }
+        onFrame(line);
+    }
+
+    private void onFrame(byte[] frame) {
+        framesSeen++;
+        if (!server.admit()) {
+            // Sobrecarga: se contesta ya desde el loop (puede adelantarse a respuestas
+            // pendientes de esta conexión; el cliente las empareja por reqId)
+            send(server.overloaded(format, frame));
+            return;
+        }
+        enqueue(frame);
+    }
+
+    private static boolean isBlank(byte[] b, int len) {
+        for (int i = 0; i < len; i++) {
+            if (b[i] != ' ' && b[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ----- procesamiento (workers) -----
+
+    private void enqueue(byte[] line) {
+        synchronized (this) {
+            requests.add(line);
+            if (processing) {
+                return;
+            }
+            processing = true;
+        }
+        server.schedule(this);
+    }
+
+    /** Corre en un worker: procesa hasta maxBatch líneas y se re-agenda si quedan más. */
+    void drain(TcpConnection.Handler handler, int maxBatch) {
+        for (int i = 0; i < maxBatch; i++) {
+            byte[] line;
+            synchronized (this) {
+                line = requests.poll();
+                if (line == null) {
+                    processing = false;
+                }
+            }
+            if (line == null) {
+                loop.execute(this::closeIfDone);
+                return;
+            }
+            send(handler.handle(this, line));
+            Runnable after = afterResponse;
+            if (after != null) {
+                afterResponse = null;
+                after.run();
+            }
+        }
+        // Tanda agotada: processing sigue tomado por esta conexión, así que nadie más la agenda
+        server.schedule(this);
+    }
+
+    /**
+     * Lo llama un handler para hacer algo cuando su respuesta ya esté encolada
+     * (p. ej. empezar a empujar eventos de una suscripción sin adelantarse al ack).
+     */
+    void afterResponse(Runnable action) {
+        Runnable prev = afterResponse;
+        afterResponse = prev == null ? action : () -> {
+            prev.run();
+            action.run();
+        };
+    }
+
+    boolean isClosed() {
+        return closed.get();
+    }
+
+    /** El pool rechazó la tanda: se responde a cada línea encolada con reply(línea), en orden. */
+    int rejectPending(Function<byte[], byte[]> reply) {
+        byte[][] pending;
+        synchronized (this) {
+            pending = requests.toArray(new byte[0][]);
+            requests.clear();
+            processing = false;
+        }
+        for (byte[] line : pending) {
+            send(reply.apply(line));
+        }
+        loop.execute(this::closeIfDone);
+        return pending.length;
+    }
+
+    // ----- escritura -----
+
+    void send(byte[] bytes) {
+        if (closed.get()) {
+            return;
+        }
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        pendingBytes.addAndGet(bytes.length);
+        if (loop.inLoop()) {
+            out.add(b);
+            flush(loop.writeBuffer());
+        } else {
+            inTransit.incrementAndGet();
+            loop.execute(() -> {
+                out.add(b);
+                inTransit.decrementAndGet();
+                flush(loop.writeBuffer());
+            });
+        }
+    }
+
+    /**
+     * Para los que mandan sin que el cliente pida (las suscripciones): true si la salida pendiente
+     * pasa de limit. En ese caso onDrained corre una vez, en el loop, cuando baje a limit/2.
+     */
+    boolean backlogged(long limit, Runnable onDrained) {
+        if (pendingBytes.get() <= limit) {
+            return false;
+        }
+        this.onDrained = onDrained;
+        this.drainBelow = limit / 2;
+        awaitingDrain.set(true);
+        // Si el loop la vació entre las dos lecturas, se sigue (el aviso de más no molesta)
+        return pendingBytes.get() > limit / 2;
+    }
+
+    long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    private void wrote(int n) {
+        if (pendingBytes.addAndGet(-n) <= drainBelow && awaitingDrain.compareAndSet(true, false)) {
+            onDrained.run();
+        }
+    }
+
+    /** Copia todo lo pendiente al buffer directo del loop y escribe en tandas. */
+    void flush(ByteBuffer writeBuf) {
+        // Un flush encolado antes del cierre puede llegar después: la key ya no sirve
+        if (closed.get() || key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            while (!out.isEmpty()) {
+                writeBuf.clear();
+                while (writeBuf.hasRemaining() && !out.isEmpty()) {
+                    ByteBuffer b = out.peek();
+                    if (b.remaining() <= writeBuf.remaining()) {
+                        writeBuf.put(b);
+                        out.poll();
+                    } else {
+                        int lim = b.limit();
+                        b.limit(b.position() + writeBuf.remaining());
+                        writeBuf.put(b);
+                        b.limit(lim);
+                    }
+                }
+                writeBuf.flip();
+                wrote(channel.write(writeBuf));
+                if (writeBuf.hasRemaining()) {
+                    // Socket lleno: lo que no salió vuelve al frente y se espera OP_WRITE
+                    ByteBuffer rest = ByteBuffer.allocate(writeBuf.remaining());
+                    rest.put(writeBuf).flip();
+                    out.addFirst(rest);
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            closeIfDone();
+        } catch (IOException | CancelledKeyException e) {
+            close();
+        }
+    }
+
+    // ----- cierre -----
+
+    private void closeIfDone() {
+        if (!inputClosed || !out.isEmpty() || inTransit.get() > 0) {
+            return;
+        }
+        synchronized (this) {
+            if (processing || !requests.isEmpty()) {
+                return;
+            }
+        }
+        close();
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try { channel.close(); } catch (IOException ignored) {}
+        server.onClosed(this);
+    }
+}
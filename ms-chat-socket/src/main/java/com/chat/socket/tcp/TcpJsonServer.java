@@ -1,126 +1,461 @@
 package com.chat.socket.tcp;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import chat.Message;
+import chat.MessageType;
+import com.chat.socket.store.HistoryCache;
+import com.chat.socket.store.MessageLog;
+import com.chat.socket.store.MessageStore;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Adaptador TCP muy simple:
- * - Lee UNA línea JSON por conexión: {"action":"...", ...}\n
- * - Devuelve UNA línea JSON con el resultado y cierra el socket.
- *
- * Ajusta las llamadas TODO: con tus servicios reales.
+ * Adaptador TCP JSON (una petición por línea):
+ * - Conexiones persistentes: {"reqId":..., "action":"...", ...}\n -> una línea de respuesta por petición.
+ * - El "reqId" que manda el cliente se devuelve en la respuesta para poder emparejarlas
+ *   ("id" ya lo usa getHistory para la conversación).
+ * - El cliente puede encadenar varias peticiones sin esperar respuesta (pipelining);
+ *   se procesan en orden por conexión y las respuestas se vacían juntas.
+ * - I/O no bloqueante: pocos hilos con Selector (IoLoop) atienden todas las conexiones y
+ *   los handlers corren en un pool acotado, así los hilos no crecen con las conexiones.
+ * - Además de 127.0.0.1 puede escuchar en un socket Unix (chat.tcp.unix-path), mismo framing.
+ * - Peticiones decodificadas con JsonParser a records (TcpRequest) y respuestas escritas con
+ *   JsonGenerator: sin árboles JSON por petición.
+ * - Admisión: pasado chat.tcp.max-in-flight se responde al instante "overloaded" con
+ *   retryAfterMs, y lo que llega con deadlineMs vencido se descarta sin ejecutarlo.
+ * - action "batch": varias sub-peticiones en una línea, con un resultado por item.
+ * - Modo binario opcional (ver WireFormat): primera línea {"action":"binary","format":"cbor"}
+ *   y desde ahí frames CBOR con prefijo de largo en ambos sentidos.
+ * - action "subscribe": la conexión queda recibiendo eventos NDJSON con los mensajes nuevos
+ *   (líneas con "event" en vez de "ok"), intercalados con las respuestas.
  */
 @Component
 public class TcpJsonServer {
-    // Puedes mover esto a application.properties y leerlo con @Value si quieres
-    private int port = 9090;
 
-    private final ObjectMapper M = new ObjectMapper();
-    private ServerSocket server;
-    private ExecutorService pool;
+    @Value("${chat.tcp.port:9090}")
+    private int port;
 
-    // Almacen “temporal” para poder probar end-to-end si aún no conectas tu lógica real
-    // Map<groupId, List<items>>
-    private final Map<String, List<ObjectNode>> historyByGroup = new ConcurrentHashMap<>();
-    // Map<userId,  List<items>>
-    private final Map<String, List<ObjectNode>> historyByUser  = new ConcurrentHashMap<>();
+    // Socket Unix adicional (vacío = desactivado), p. ej. /tmp/chat-socket/json.sock
+    @Value("${chat.tcp.unix-path:}")
+    private String unixPath;
+
+    @Value("${chat.tcp.io-threads:2}")
+    private int ioThreads;
+
+    @Value("${chat.tcp.io-buffer-bytes:65536}")
+    private int ioBufferBytes;
+
+    @Value("${chat.tcp.workers:8}")
+    private int workers;
+
+    @Value("${chat.tcp.worker-queue:1024}")
+    private int workerQueue;
+
+    @Value("${chat.tcp.max-frame-bytes:1048576}")
+    private int maxFrameBytes;
+
+    @Value("${chat.tcp.max-batch-items:1000}")
+    private int maxBatchItems;
+
+    // Presupuesto (bytes) del cache de historiales ya serializados
+    @Value("${chat.tcp.history-cache-bytes:33554432}")
+    private long historyCacheBytes;
+
+    // Suscripciones: máximo por conexión e hilos que empujan los eventos
+    @Value("${chat.tcp.max-subscriptions:64}")
+    private int maxSubscriptions;
+
+    @Value("${chat.tcp.push-threads:1}")
+    private int pushThreads;
+
+    // Salida pendiente por conexión a partir de la cual los eventos esperan a que el cliente lea
+    @Value("${chat.tcp.subscribe-max-pending-bytes:1048576}")
+    private long subscribeMaxPendingBytes;
+
+    // Admisión: tope de peticiones en vuelo (encoladas + ejecutándose) entre todas las conexiones
+    @Value("${chat.tcp.max-in-flight:2048}")
+    private int maxInFlight;
+
+    @Value("${chat.tcp.retry-after-min-ms:50}")
+    private long retryAfterMinMs;
+
+    @Value("${chat.tcp.retry-after-max-ms:2000}")
+    private long retryAfterMaxMs;
+
+    // Líneas que procesa un worker por conexión antes de ceder el hilo a otra
+    private static final int DRAIN_BATCH = 32;
+
+    // Parser y generator son de streaming; la factory sale del WireFormat de cada conexión
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+    private static final ThreadLocal<FrameBuffer> RESPONSE_BUFFER =
+            ThreadLocal.withInitial(() -> new FrameBuffer(4096));
+    private ServerSocketChannel server;
+    private ServerSocketChannel unixServer;
+    private IoLoop[] loops;
+    private ThreadPoolExecutor pool;
+    private TcpSubscriptions subscriptions;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private final Set<TcpConnection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong overloaded = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong batchAppends = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong binaryConnections = new AtomicLong();
+    private HistoryCache<byte[]> historyCache;
+    // Media móvil (EWMA 1/8) del tiempo de servicio por petición, para estimar retryAfterMs
+    private volatile long avgServiceNanos;
+
+    // Historial compartido con ICE y STOMP
+    private final MessageStore store;
+
+    public TcpJsonServer(MessageStore store) {
+        this.store = store;
+    }
 
     @PostConstruct
     public void start() throws IOException {
-        server = new ServerSocket();
+        int nWorkers = Math.max(1, workers);
+        pool = new ThreadPoolExecutor(nWorkers, nWorkers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, workerQueue)), namedThreads("TcpWorker"),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        historyCache = new HistoryCache<>(historyCacheBytes, b -> b.length);
+        subscriptions = new TcpSubscriptions(store, pushThreads, subscribeMaxPendingBytes);
+        store.addListener(subscriptions);
+
+        loops = new IoLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop("TcpIo-" + i, ioBufferBytes);
+            loops[i].start();
+        }
+
+        server = ServerSocketChannel.open();
         // Bind explícito a 127.0.0.1 para evitar problemas de ::1 (IPv6)
         server.bind(new InetSocketAddress("127.0.0.1", port));
-        pool = Executors.newCachedThreadPool();
-        pool.submit(this::acceptLoop);
-        System.out.println("[TCP] Json server escuchando en 127.0.0.1:" + port);
+        loops[0].listen(server, ch -> onAccept(ch, true));
+        System.out.println("[TCP] Json server escuchando en 127.0.0.1:" + port
+                + " (io=" + loops.length + ", workers=" + nWorkers + ")");
+
+        if (unixPath != null && !unixPath.isBlank()) {
+            startUnix(Path.of(unixPath));
+        }
+    }
+
+    // Mismo protocolo sobre un socket Unix (proxy en el mismo host); TCP queda como respaldo
+    private void startUnix(Path path) {
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            // Un archivo de socket viejo (de un arranque anterior) impediría el bind
+            Files.deleteIfExists(path);
+            unixServer = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            unixServer.bind(UnixDomainSocketAddress.of(path));
+            loops[loops.length > 1 ? 1 : 0].listen(unixServer, ch -> onAccept(ch, false));
+            System.out.println("[TCP] Json server escuchando en unix:" + path.toAbsolutePath());
+        } catch (IOException | UnsupportedOperationException e) {
+            unixServer = null;
+            System.err.println("[TCP] no se pudo abrir el socket unix " + path + ": " + e.getMessage());
+        }
     }
 
     @PreDestroy
     public void stop() {
-        try { if (server != null && !server.isClosed()) server.close(); } catch (IOException ignored) {}
+        try { if (server != null) server.close(); } catch (IOException ignored) {}
+        if (unixServer != null) {
+            try { unixServer.close(); } catch (IOException ignored) {}
+            try { Files.deleteIfExists(Path.of(unixPath)); } catch (IOException ignored) {}
+        }
+        if (subscriptions != null) {
+            store.removeListener(subscriptions);
+            subscriptions.shutdown();
+        }
+        for (TcpConnection c : connections) {
+            c.close();
+        }
+        if (loops != null) {
+            for (IoLoop loop : loops) {
+                loop.stop();
+            }
+        }
         if (pool != null) pool.shutdownNow();
         System.out.println("[TCP] Json server detenido");
     }
 
-    private void acceptLoop() {
-        while (!server.isClosed()) {
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // Corre en el loop que escucha: reparte las conexiones entre los loops en round-robin
+    private void onAccept(SocketChannel ch, boolean tcp) {
+        if (tcp) {
             try {
-                Socket s = server.accept();
-                pool.submit(() -> handleClient(s));
-            } catch (IOException e) {
-                if (!server.isClosed()) e.printStackTrace();
-            }
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException ignored) {}
         }
+        IoLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        TcpConnection conn = new TcpConnection(ch, loop, this, maxFrameBytes);
+        connections.add(conn);
+        accepted.incrementAndGet();
+        loop.register(conn);
     }
 
-    private void handleClient(Socket s) {
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
-             BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+    void onClosed(TcpConnection conn) {
+        connections.remove(conn);
+        if (subscriptions != null) {
+            subscriptions.remove(conn);
+        }
+    }
 
-            String line = br.readLine();
-            if (line == null || line.isEmpty()) {
-                writeLine(bw, error("empty_request"));
-                return;
-            }
-            JsonNode in = M.readTree(line);
-            String action = in.path("action").asText("");
+    // Agenda una tanda de la conexión en el pool; si está lleno se responde "server_busy"
+    void schedule(TcpConnection conn) {
+        try {
+            pool.execute(() -> conn.drain(this::handleFrame, DRAIN_BATCH));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            WireFormat format = conn.format();
+            int n = conn.rejectPending(line -> errorFrame(format, "server_busy", format.decoder.peekReqId(line), -1));
+            inFlight.addAndGet(-n);
+        }
+    }
 
-            ObjectNode out;
-            switch (action) {
-                case "createGroup":
-                    out = handleCreateGroup(in);
-                    break;
-                case "sendMessage":
-                    out = handleSendMessage(in);
-                    break;
-                case "getHistory":
-                    out = handleGetHistory(in);
-                    break;
-                default:
-                    out = error("unknown_action").put("action", action);
+    /** Reserva un lugar en vuelo para una línea recién leída; false = sobrecarga. */
+    boolean admit() {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            overloaded.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /** Respuesta rápida de sobrecarga: solo se busca el reqId, la petición no se decodifica. */
+    byte[] overloaded(WireFormat format, byte[] frame) {
+        return errorFrame(format, "overloaded", format.decoder.peekReqId(frame), retryAfterMs());
+    }
+
+    // Tiempo estimado para vaciar lo que hay en vuelo con los workers disponibles
+    private long retryAfterMs() {
+        long drainMs = inFlight.get() * avgServiceNanos / Math.max(1, workers) / 1_000_000L;
+        return Math.max(retryAfterMinMs, Math.min(retryAfterMaxMs, drainMs));
+    }
+
+    byte[] frameTooLarge(WireFormat format) {
+        return errorFrame(format, "frame_too_large", null, -1);
+    }
+
+    /**
+     * Handshake del modo binario: {"action":"binary","format":"cbor"} como primera línea.
+     * Devuelve el formato pedido (null si la línea no es un handshake) y deja la respuesta,
+     * siempre en texto, en reply[0]. Corre en el hilo de I/O: el cambio de framing tiene que
+     * aplicarse antes de leer el siguiente byte.
+     */
+    WireFormat handshake(byte[] line, byte[][] reply) {
+        if (!contains(line, BINARY_ACTION)) {
+            return null;
+        }
+        TcpRequest req;
+        try {
+            req = WireFormat.JSON.decoder.decode(line);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!(req instanceof TcpRequest.Binary b)) {
+            return null;
+        }
+        WireFormat format = WireFormat.byName(b.format());
+        if (format == null || !format.framed()) {
+            reply[0] = errorFrame(WireFormat.JSON, "unsupported_format", b.reqId(), -1);
+            return WireFormat.JSON;
+        }
+        FrameBuffer buf = new FrameBuffer(64).begin(WireFormat.JSON);
+        try (JsonGenerator g = WireFormat.JSON.factory.createGenerator(buf)) {
+            g.writeStartObject();
+            ok(g);
+            g.writeStringField("format", format.name().toLowerCase());
+            writeReqId(g, b.reqId());
+            g.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        reply[0] = buf.finish(WireFormat.JSON);
+        binaryConnections.incrementAndGet();
+        return format;
+    }
+
+    private static final byte[] BINARY_ACTION = "\"binary\"".getBytes(StandardCharsets.US_ASCII);
+
+    private static boolean contains(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
             }
+            return true;
+        }
+        return false;
+    }
 
-            writeLine(bw, out);
-        } catch (Exception e) {
-            e.printStackTrace();
+    // Corre en un worker por cada línea admitida; libera su lugar en vuelo al terminar
+    private byte[] handleFrame(TcpConnection conn, byte[] frame) {
+        long t0 = System.nanoTime();
+        try {
+            return process(conn, frame);
         } finally {
-            try { s.close(); } catch (IOException ignored) {}
+            inFlight.decrementAndGet();
+            long avg = avgServiceNanos;
+            avgServiceNanos = avg + ((System.nanoTime() - t0) - avg) / 8;
+        }
+    }
+
+    // Decodifica con streaming y escribe la respuesta con un JsonGenerator sobre un
+    // buffer reutilizable del hilo (sin JsonNode/ObjectNode ni String intermedios).
+    private byte[] process(TcpConnection conn, byte[] frame) {
+        requests.incrementAndGet();
+        WireFormat format = conn.format();
+        TcpRequest req;
+        try {
+            req = format.decoder.decode(frame);
+        } catch (IOException e) {
+            // Si el reqId se alcanza a leer, el cliente puede cerrar esa petición sin esperar su timeout
+            return errorFrame(format, "invalid_json", format.decoder.peekReqId(frame), -1);
+        }
+        // El cliente ya se rindió con esta petición: no se gasta trabajo en ella
+        if (req.deadlineMs() > 0 && System.currentTimeMillis() > req.deadlineMs()) {
+            expired.incrementAndGet();
+            return errorFrame(format, "deadline_exceeded", req.reqId(), -1);
+        }
+
+        FrameBuffer buf = RESPONSE_BUFFER.get().begin(format);
+        try (JsonGenerator g = format.factory.createGenerator(buf)) {
+            g.writeStartObject();
+            dispatch(conn, req, g);
+            writeReqId(g, req.reqId());
+            g.writeEndObject();
+        } catch (Exception e) {
+            System.out.println("[TCP] error procesando " + req.getClass().getSimpleName() + ": " + e);
+            return errorFrame(format, "internal_error", req.reqId(), -1);
+        }
+        byte[] out = buf.finish(format);
+        if (buf.size() > MAX_RETAINED_BUFFER) {
+            // No retener en el hilo el buffer de una respuesta enorme
+            RESPONSE_BUFFER.remove();
+        }
+        return out;
+    }
+
+    // Eco del reqId del cliente para emparejar respuestas en conexiones persistentes
+    private static void writeReqId(JsonGenerator g, Object reqId) throws IOException {
+        if (reqId != null) {
+            g.writeFieldName("reqId");
+            g.writeObject(reqId);
         }
     }
 
-    private void writeLine(BufferedWriter bw, ObjectNode json) throws IOException {
-        bw.write(M.writeValueAsString(json));
-        bw.write("\n");
-        bw.flush();
+    private void dispatch(TcpConnection conn, TcpRequest req, JsonGenerator g) throws IOException {
+        if (req instanceof TcpRequest.CreateGroup r) {
+            handleCreateGroup(r, g);
+        } else if (req instanceof TcpRequest.SendMessage r) {
+            handleSendMessage(r, g);
+        } else if (req instanceof TcpRequest.GetHistory r) {
+            handleGetHistory(conn.format(), r, g);
+        } else if (req instanceof TcpRequest.Batch r) {
+            handleBatch(conn, r, g);
+        } else if (req instanceof TcpRequest.Subscribe r) {
+            handleSubscribe(conn, r, g);
+        } else if (req instanceof TcpRequest.Binary) {
+            error(g, "handshake_must_be_first");
+        } else if (req instanceof TcpRequest.Unknown r) {
+            error(g, "unknown_action");
+            g.writeStringField("action", r.action());
+        }
+    }
+
+    // {"ok":false,"error":code[,"retryAfterMs":..][,"reqId":..]}; retryAfterMs < 0 = no se incluye
+    private byte[] errorFrame(WireFormat format, String code, Object reqId, long retryAfterMs) {
+        FrameBuffer buf = new FrameBuffer(64).begin(format);
+        try (JsonGenerator g = format.factory.createGenerator(buf)) {
+            g.writeStartObject();
+            error(g, code);
+            if (retryAfterMs >= 0) {
+                g.writeNumberField("retryAfterMs", retryAfterMs);
+            }
+            writeReqId(g, reqId);
+            g.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buf.finish(format);
     }
 
-    // --------- Handlers de ejemplo (reemplaza con tus servicios reales) ---------
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("unixPath", unixServer != null ? unixPath : "");
+        out.put("connections", connections.size());
+        out.put("accepted", accepted.get());
+        out.put("requests", requests.get());
+        out.put("rejected", rejected.get());
+        out.put("inFlight", inFlight.get());
+        out.put("maxInFlight", maxInFlight);
+        out.put("overloaded", overloaded.get());
+        out.put("expired", expired.get());
+        out.put("avgServiceMicros", avgServiceNanos / 1000);
+        out.put("batchAppends", batchAppends.get());
+        out.put("subscriptions", subscriptions != null ? subscriptions.stats() : Map.of());
+        out.put("notModified", notModified.get());
+        out.put("binaryConnections", binaryConnections.get());
+        out.put("historyCache", historyCache != null ? historyCache.stats() : Map.of());
+        out.put("ioThreads", loops != null ? loops.length : 0);
+        out.put("workers", pool != null ? pool.getPoolSize() : 0);
+        out.put("workerQueue", pool != null ? pool.getQueue().size() : 0);
+        return out;
+    }
+
+    // --------- Handlers (escriben sus campos dentro del objeto de respuesta ya abierto) ---------
 
     // createGroup: {"action":"createGroup","name":"amigos","members":["ana","karen"]}
-    private ObjectNode handleCreateGroup(JsonNode in) {
-        String name = in.path("name").asText(null);
-        if (name == null || name.isBlank()) return error("name_required");
+    private void handleCreateGroup(TcpRequest.CreateGroup in, JsonGenerator g) throws IOException {
+        String name = in.name();
+        if (name == null || name.isBlank()) {
+            error(g, "name_required");
+            return;
+        }
 
-        // TODO: llama a tu servicio real para registrar grupo y miembros
-        historyByGroup.computeIfAbsent(name, k -> Collections.synchronizedList(new ArrayList<>()));
+        store.ensureConversation(MessageStore.GROUP, name);
 
-        ObjectNode ok = ok();
-        ok.put("groupId", name);
-        return ok;
+        ok(g);
+        g.writeStringField("groupId", name);
     }
 
     // sendMessage:
@@ -130,70 +465,288 @@ public class TcpJsonServer {
     //   "to":"andrea-karen",
     //   "from":"karen",
     //   "content":{"type":"text"|"audio","text": "...", "audioUrl":"..."},
-    //   "createdAt": 1731111111111
+    //   "createdAt": 1731111111111,
+    //   "clientMsgId": "c-7f3a..."   (opcional: un reintento con el mismo id no se guarda dos veces)
     // }
-    private ObjectNode handleSendMessage(JsonNode in) {
-        String toType = in.path("toType").asText();
-        String to = in.path("to").asText();
-        String from = in.path("from").asText();
-        JsonNode content = in.path("content");
-        long ts = in.path("createdAt").asLong(System.currentTimeMillis());
-
-        if (toType.isBlank() || to.isBlank() || from.isBlank() || content.isMissingNode()) {
-            return error("invalid_payload");
-        }
-
-        // TODO: persiste con tus entidades/servicios reales
-        ObjectNode item = M.createObjectNode();
-        item.put("from", from);
-        item.put("to", to);
-        item.put("type", content.path("type").asText("text"));
-        if (item.path("type").asText().equals("text")) {
-            item.put("text", content.path("text").asText(""));
-        } else {
-            item.put("audioUrl", content.path("audioUrl").asText(""));
-        }
-        item.put("createdAt", ts);
-
-        if ("group".equalsIgnoreCase(toType)) {
-            historyByGroup.computeIfAbsent(to, k -> Collections.synchronizedList(new ArrayList<>())).add(item);
-        } else {
-            historyByUser.computeIfAbsent(to, k -> Collections.synchronizedList(new ArrayList<>())).add(item);
-        }
-        return ok().put("stored", 1);
-    }
-
-    // getHistory: {"action":"getHistory","scope":"group"|"user","id":"andrea-karen"}
-    private ObjectNode handleGetHistory(JsonNode in) {
-        String scope = in.path("scope").asText();
-        String id = in.path("id").asText();
-        ArrayNode items = M.createArrayNode();
-
-        // TODO: consulta a tu repositorio/servicio real
-        if ("group".equalsIgnoreCase(scope)) {
-            List<ObjectNode> list = historyByGroup.getOrDefault(id, List.of());
-            list.forEach(items::add);
-        } else if ("user".equalsIgnoreCase(scope)) {
-            List<ObjectNode> list = historyByUser.getOrDefault(id, List.of());
-            list.forEach(items::add);
-        } else {
-            return error("invalid_scope");
-        }
-        ObjectNode out = ok();
-        out.set("items", items);
-        return out;
+    // -> {"ok":true,"stored":1} o, si es un reintento, {"ok":true,"stored":0,"duplicate":true}
+    private void handleSendMessage(TcpRequest.SendMessage in, JsonGenerator g) throws IOException {
+        Message msg = toMessage(in);
+        if (msg == null) {
+            error(g, "invalid_payload");
+            return;
+        }
+        if (isRetry(in, msg)) {
+            duplicate(g);
+            return;
+        }
+        try {
+            store.append(MessageLog.source(MessageLog.SOURCE_TCP, in.clientMsgId() != null), msg);
+        } catch (RuntimeException e) {
+            release(in, msg);
+            throw e;
+        }
+        ok(g);
+        g.writeNumberField("stored", 1);
+    }
+
+    private boolean isRetry(TcpRequest.SendMessage in, Message msg) {
+        return in.clientMsgId() != null && !store.claim(msg.from, in.clientMsgId());
+    }
+
+    // El append falló: el id vuelve a quedar libre para que el reintento se guarde
+    private void release(TcpRequest.SendMessage in, Message msg) {
+        if (in.clientMsgId() != null) {
+            store.release(msg.from, in.clientMsgId());
+        }
+    }
+
+    private static void writeDuplicate(JsonGenerator g, TcpRequest item) throws IOException {
+        g.writeStartObject();
+        duplicate(g);
+        writeReqId(g, item.reqId());
+        g.writeEndObject();
+    }
+
+    private static void duplicate(JsonGenerator g) throws IOException {
+        ok(g);
+        g.writeNumberField("stored", 0);
+        g.writeBooleanField("duplicate", true);
+    }
+
+    // null si al payload le falta algo obligatorio
+    private static Message toMessage(TcpRequest.SendMessage in) {
+        if (in.toType().isBlank() || in.to().isBlank() || in.from().isBlank() || !in.hasContent()) {
+            return null;
+        }
+        boolean text = in.contentType() == null || "text".equals(in.contentType());
+        return new Message(
+                in.clientMsgId() != null ? in.clientMsgId() : UUID.randomUUID().toString(),
+                in.from(),
+                in.to(),
+                MessageStore.scopeOf(in.toType()),
+                text ? MessageType.TEXT : MessageType.AUDIO,
+                text && in.text() != null ? in.text() : "",
+                !text && in.audioUrl() != null ? in.audioUrl() : "",
+                in.createdAt() != null ? in.createdAt() : System.currentTimeMillis(),
+                "",
+                0.0
+        );
+    }
+
+    // getHistory: {"action":"getHistory","scope":"group"|"user","id":"andrea-karen","ifVersion":41}
+    // -> {"ok":true,"version":42,"items":[...]} o, si la versión no cambió,
+    //    {"ok":true,"version":41,"status":"not_modified"}
+    // Los items salen del cache por (conversación, versión); si no están se escriben directo
+    // desde el store, sin armar un arreglo intermedio.
+    private void handleGetHistory(WireFormat format, TcpRequest.GetHistory in, JsonGenerator g) throws IOException {
+        String scope = in.scope();
+        if (!"group".equalsIgnoreCase(scope) && !"user".equalsIgnoreCase(scope)) {
+            error(g, "invalid_scope");
+            return;
+        }
+        int version = store.version(scope, in.id());
+        ok(g);
+        g.writeNumberField("version", version);
+        if (in.ifVersion() != null && in.ifVersion() == version) {
+            notModified.incrementAndGet();
+            g.writeStringField("status", "not_modified");
+            return;
+        }
+
+        byte[] items = historyCache.get(format.name() + ":" + MessageStore.scopeOf(scope) + ":" + in.id(), version,
+                () -> serializeItems(format, scope, in.id(), version));
+        if (format == WireFormat.JSON) {
+            // El arreglo ya serializado va tal cual: writeRawValue("") deja al generator en el
+            // estado "valor escrito" y los bytes se copian detrás de lo que ya vació.
+            g.writeFieldName("items");
+            g.writeRawValue("");
+        }
+        // En CBOR (mapa de largo indefinido) el cache trae clave + arreglo: cada item CBOR es
+        // autodelimitado, así que se pega sin que el generator tenga que enterarse.
+        g.flush();
+        ((OutputStream) g.getOutputTarget()).write(items);
+    }
+
+    private byte[] serializeItems(WireFormat format, String scope, String id, int version) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+        try (JsonGenerator g = format.factory.createGenerator(buf)) {
+            if (format != WireFormat.JSON) {
+                g.writeString("items");
+            }
+            g.writeStartArray();
+            store.forEach(scope, id, version, m -> writeItem(g, m));
+            g.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buf.toByteArray();
+    }
+
+    // batch: {"action":"batch","requests":[{"action":"sendMessage",...}, {"action":"getHistory",...}]}
+    // -> {"ok":true,"results":[{...}, {...}]} con un resultado por item, en el mismo orden.
+    // Los sendMessage consecutivos a la misma conversación se guardan en una sola operación;
+    // si esa operación falla, sus items responden internal_error y el resto del lote sigue.
+    // subscribe y binary no van dentro de un lote (not_batchable).
+    private void handleBatch(TcpConnection conn, TcpRequest.Batch in, JsonGenerator g) throws IOException {
+        List<TcpRequest> items = in.items();
+        if (items.size() > maxBatchItems) {
+            error(g, "batch_too_large");
+            g.writeNumberField("maxItems", maxBatchItems);
+            return;
+        }
+        Message[] msgs = new Message[items.size()];
+        for (int k = 0; k < items.size(); k++) {
+            if (items.get(k) instanceof TcpRequest.SendMessage sm) {
+                msgs[k] = toMessage(sm);
+            }
+        }
+
+        ok(g);
+        g.writeArrayFieldStart("results");
+        int i = 0;
+        while (i < items.size()) {
+            TcpRequest item = items.get(i);
+            Message first = msgs[i];
+            if (first == null) {
+                g.writeStartObject();
+                if (item instanceof TcpRequest.Batch) {
+                    error(g, "nested_batch");
+                } else if (item instanceof TcpRequest.Subscribe || item instanceof TcpRequest.Binary) {
+                    // Cambian el estado de la conexión: solo como request suelto
+                    error(g, "not_batchable");
+                } else {
+                    dispatch(conn, item, g);
+                }
+                writeReqId(g, item.reqId());
+                g.writeEndObject();
+                i++;
+                continue;
+            }
+            if (isRetry((TcpRequest.SendMessage) item, first)) {
+                writeDuplicate(g, item);
+                i++;
+                continue;
+            }
+
+            // Tramo de mensajes válidos seguidos hacia la misma conversación. Los ids se reclaman
+            // recién al armar el tramo (un repetido lo corta) y se sueltan si el append falla.
+            List<Message> run = new ArrayList<>();
+            run.add(first);
+            int j = i + 1;
+            boolean retryNext = false;
+            while (j < items.size()) {
+                Message m = msgs[j];
+                if (m == null || !m.scope.equals(first.scope) || !m.to.equals(first.to)) {
+                    break;
+                }
+                if (isRetry((TcpRequest.SendMessage) items.get(j), m)) {
+                    retryNext = true;
+                    break;
+                }
+                run.add(m);
+                j++;
+            }
+            byte[] sources = new byte[run.size()];
+            for (int k = i; k < j; k++) {
+                sources[k - i] = MessageLog.source(MessageLog.SOURCE_TCP,
+                        ((TcpRequest.SendMessage) items.get(k)).clientMsgId() != null);
+            }
+            boolean stored;
+            try {
+                store.appendAll(sources, run);
+                batchAppends.incrementAndGet();
+                stored = true;
+            } catch (RuntimeException e) {
+                System.out.println("[TCP] batch: no se pudo guardar un tramo de " + run.size() + ": " + e);
+                for (int k = i; k < j; k++) {
+                    release((TcpRequest.SendMessage) items.get(k), msgs[k]);
+                }
+                stored = false;
+            }
+            for (int k = i; k < j; k++) {
+                g.writeStartObject();
+                if (stored) {
+                    ok(g);
+                    g.writeNumberField("stored", 1);
+                } else {
+                    error(g, "internal_error");
+                }
+                writeReqId(g, items.get(k).reqId());
+                g.writeEndObject();
+            }
+            i = j;
+            if (retryNext) {
+                // Ya se reclamó al cortar el tramo: es un reintento
+                writeDuplicate(g, items.get(i));
+                i++;
+            }
+        }
+        g.writeEndArray();
+    }
+
+    // subscribe: {"action":"subscribe","conversations":[{"scope":"group","id":"g1","after":12}]}
+    // -> {"ok":true,"subscribed":[{"scope":"group","id":"g1","cursor":12}]} y luego, por la misma
+    // conexión, un evento por mensaje nuevo (ver TcpSubscriptions) hasta que se cierre.
+    private void handleSubscribe(TcpConnection conn, TcpRequest.Subscribe in, JsonGenerator g) throws IOException {
+        List<TcpRequest.Topic> topics = in.conversations();
+        if (topics.isEmpty()) {
+            error(g, "conversations_required");
+            return;
+        }
+        for (TcpRequest.Topic t : topics) {
+            if (!"group".equalsIgnoreCase(t.scope()) && !"user".equalsIgnoreCase(t.scope()) || t.id().isBlank()) {
+                error(g, "invalid_scope");
+                return;
+            }
+        }
+        if (subscriptions.count(conn) + topics.size() > maxSubscriptions) {
+            error(g, "too_many_subscriptions");
+            g.writeNumberField("max", maxSubscriptions);
+            return;
+        }
+
+        List<TcpSubscriptions.Subscription> subs = subscriptions.add(conn, topics);
+        // Los eventos empiezan a salir después del ack
+        conn.afterResponse(() -> subscriptions.start(subs));
+
+        ok(g);
+        g.writeArrayFieldStart("subscribed");
+        for (TcpSubscriptions.Subscription s : subs) {
+            g.writeStartObject();
+            g.writeStringField("scope", s.scope);
+            g.writeStringField("id", s.id);
+            g.writeNumberField("cursor", s.last);
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+    }
+
+    // Item JSON de historial (mismo formato que antes del MessageStore)
+    static void writeItem(JsonGenerator g, Message m) {
+        try {
+            g.writeStartObject();
+            g.writeStringField("from", m.from);
+            g.writeStringField("to", m.to);
+            if (m.type == MessageType.TEXT) {
+                g.writeStringField("type", "text");
+                g.writeStringField("text", m.text);
+            } else {
+                g.writeStringField("type", "audio");
+                g.writeStringField("audioUrl", m.audioUrl);
+            }
+            g.writeNumberField("createdAt", m.createdAt);
+            g.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private ObjectNode ok() {
-        ObjectNode n = M.createObjectNode();
-        n.put("ok", true);
-        return n;
+    private static void ok(JsonGenerator g) throws IOException {
+        g.writeBooleanField("ok", true);
     }
 
-    private ObjectNode error(String code) {
-        ObjectNode n = M.createObjectNode();
-        n.put("ok", false);
-        n.put("error", code);
-        return n;
+    private static void error(JsonGenerator g, String code) throws IOException {
+        g.writeBooleanField("ok", false);
+        g.writeStringField("error", code);
     }
 }
@@ -0,0 +1,42 @@
+package com.chat.socket.tcp;
+
+import java.util.List;
+
+/**
+ * Petición del adaptador TCP JSON ya decodificada (sin árbol JSON intermedio).
+ * reqId es el valor tal cual lo mandó el cliente (String, Long, Double, Boolean o null).
+ * deadlineMs es el instante (epoch ms) a partir del cual al cliente ya no le sirve la respuesta; 0 = sin plazo.
+ */
+sealed interface TcpRequest {
+
+    Object reqId();
+
+    long deadlineMs();
+
+    // {"action":"createGroup","name":"amigos","members":["ana","karen"]}
+    record CreateGroup(Object reqId, long deadlineMs, String name, List<String> members) implements TcpRequest {}
+
+    // {"action":"sendMessage","toType":"group","to":"...","from":"...","content":{...},"createdAt":...,"clientMsgId":"..."}
+    // hasContent distingue "content" ausente; createdAt null = ahora; clientMsgId null = sin deduplicar
+    record SendMessage(Object reqId, long deadlineMs, String toType, String to, String from,
+                       boolean hasContent, String contentType, String text, String audioUrl, Long createdAt,
+                       String clientMsgId) implements TcpRequest {}
+
+    // {"action":"getHistory","scope":"group"|"user","id":"andrea-karen","ifVersion":42}
+    // ifVersion null = siempre devolver los items
+    record GetHistory(Object reqId, long deadlineMs, String scope, String id, Long ifVersion) implements TcpRequest {}
+
+    // {"action":"batch","requests":[{...sub-petición...}, ...]}; cada item conserva su propio reqId
+    record Batch(Object reqId, long deadlineMs, List<TcpRequest> items) implements TcpRequest {}
+
+    // {"action":"subscribe","conversations":[{"scope":"group","id":"g1","after":12}, ...]}
+    // after = último cursor que ya tiene el cliente (-1 = desde el inicio, null = solo lo nuevo)
+    record Subscribe(Object reqId, long deadlineMs, List<Topic> conversations) implements TcpRequest {}
+
+    record Topic(String scope, String id, Long after) {}
+
+    // {"action":"binary","format":"cbor"}: handshake del modo binario (solo como primera línea)
+    record Binary(Object reqId, long deadlineMs, String format) implements TcpRequest {}
+
+    record Unknown(Object reqId, long deadlineMs, String action) implements TcpRequest {}
+}
@@ -0,0 +1,245 @@
+package com.chat.socket.tcp;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodifica una petición del adaptador TCP con el JsonParser de streaming
+ * (la factory define el formato: JSON de texto o CBOR).
+ * - Los campos pueden venir en cualquier orden ("action" incluido); los desconocidos se saltan.
+ * - Un valor escalar se toma como texto (igual que antes con asText()); objetos o arreglos
+ *   donde se espera un escalar se ignoran.
+ */
+final class TcpRequestDecoder {
+
+    private final JsonFactory factory;
+
+    TcpRequestDecoder(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /** Lanza IOException si la línea no es un objeto JSON válido. */
+    TcpRequest decode(byte[] line) throws IOException {
+        try (JsonParser p = factory.createParser(line)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(p, "se esperaba un objeto");
+            }
+            TcpRequest req = readRequest(p);
+            if (p.nextToken() != null) {
+                throw new JsonParseException(p, "contenido después del objeto");
+            }
+            return req;
+        }
+    }
+
+    // El parser está en START_OBJECT; al volver queda en su END_OBJECT
+    private TcpRequest readRequest(JsonParser p) throws IOException {
+        Fields f = new Fields();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            switch (name) {
+                case "reqId" -> f.reqId = scalarValue(p, t);
+                case "deadlineMs" -> f.deadlineMs = t.isNumeric() ? p.getLongValue() : skip(p);
+                case "action" -> f.action = text(p, t);
+                case "name" -> f.name = text(p, t);
+                case "members" -> f.members = textList(p, t);
+                case "toType" -> f.toType = text(p, t);
+                case "to" -> f.to = text(p, t);
+                case "from" -> f.from = text(p, t);
+                case "scope" -> f.scope = text(p, t);
+                case "id" -> f.id = text(p, t);
+                case "format" -> f.format = text(p, t);
+                case "ifVersion" -> f.ifVersion = t.isNumeric() ? p.getLongValue() : null;
+                case "clientMsgId" -> f.clientMsgId = text(p, t);
+                case "createdAt" -> f.createdAt = t.isScalarValue() && t != JsonToken.VALUE_NULL
+                        ? p.getValueAsLong(System.currentTimeMillis()) : null;
+                case "content" -> readContent(p, t, f);
+                case "requests" -> f.items = readItems(p, t);
+                case "conversations" -> f.topics = readTopics(p, t);
+                default -> p.skipChildren();
+            }
+        }
+
+        String action = f.action != null ? f.action : "";
+        return switch (action) {
+            case "createGroup" -> new TcpRequest.CreateGroup(f.reqId, f.deadlineMs, f.name, f.members);
+            case "sendMessage" -> new TcpRequest.SendMessage(f.reqId, f.deadlineMs,
+                    orEmpty(f.toType), orEmpty(f.to), orEmpty(f.from), f.hasContent, f.contentType, f.text, f.audioUrl, f.createdAt,
+                    f.clientMsgId == null || f.clientMsgId.isEmpty() ? null : f.clientMsgId);
+            case "getHistory" -> new TcpRequest.GetHistory(f.reqId, f.deadlineMs, orEmpty(f.scope), orEmpty(f.id), f.ifVersion);
+            case "batch" -> new TcpRequest.Batch(f.reqId, f.deadlineMs, f.items);
+            case "binary" -> new TcpRequest.Binary(f.reqId, f.deadlineMs, orEmpty(f.format));
+            case "subscribe" -> new TcpRequest.Subscribe(f.reqId, f.deadlineMs, f.topics);
+            default -> new TcpRequest.Unknown(f.reqId, f.deadlineMs, action);
+        };
+    }
+
+    /**
+     * Solo busca el reqId en el primer nivel (para responder sin decodificar toda la petición,
+     * p. ej. al rechazarla por sobrecarga). Devuelve null si no hay o la línea no es JSON.
+     */
+    Object peekReqId(byte[] line) {
+        try (JsonParser p = factory.createParser(line)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                JsonToken t = p.nextToken();
+                if ("reqId".equals(name)) {
+                    return scalarValue(p, t);
+                }
+                p.skipChildren();
+            }
+        } catch (IOException ignored) {
+            // sin reqId: el cliente no podrá emparejarla, pero igual recibe la respuesta
+        }
+        return null;
+    }
+
+    // Sub-peticiones de un batch; lo que no sea objeto se toma como acción desconocida
+    private List<TcpRequest> readItems(JsonParser p, JsonToken t) throws IOException {
+        if (t != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return List.of();
+        }
+        List<TcpRequest> out = new ArrayList<>();
+        JsonToken v;
+        while ((v = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (v == JsonToken.START_OBJECT) {
+                out.add(readRequest(p));
+            } else {
+                p.skipChildren();
+                out.add(new TcpRequest.Unknown(null, 0L, ""));
+            }
+        }
+        return out;
+    }
+
+    private List<TcpRequest.Topic> readTopics(JsonParser p, JsonToken t) throws IOException {
+        if (t != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return List.of();
+        }
+        List<TcpRequest.Topic> out = new ArrayList<>();
+        JsonToken v;
+        while ((v = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (v != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+            String scope = null;
+            String id = null;
+            Long after = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                JsonToken x = p.nextToken();
+                switch (name) {
+                    case "scope" -> scope = text(p, x);
+                    case "id" -> id = text(p, x);
+                    case "after" -> after = x.isNumeric() ? p.getLongValue() : null;
+                    default -> p.skipChildren();
+                }
+            }
+            out.add(new TcpRequest.Topic(orEmpty(scope), orEmpty(id), after));
+        }
+        return out;
+    }
+
+    private void readContent(JsonParser p, JsonToken t, Fields f) throws IOException {
+        f.hasContent = t != JsonToken.VALUE_NULL;
+        if (t != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return;
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken v = p.nextToken();
+            switch (name) {
+                case "type" -> f.contentType = text(p, v);
+                case "text" -> f.text = text(p, v);
+                case "audioUrl" -> f.audioUrl = text(p, v);
+                default -> p.skipChildren();
+            }
+        }
+    }
+
+    private static String text(JsonParser p, JsonToken t) throws IOException {
+        if (!t.isScalarValue()) {
+            p.skipChildren();
+            return null;
+        }
+        return p.getValueAsString();
+    }
+
+    private static List<String> textList(JsonParser p, JsonToken t) throws IOException {
+        if (t != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return List.of();
+        }
+        List<String> out = new ArrayList<>();
+        JsonToken v;
+        while ((v = p.nextToken()) != JsonToken.END_ARRAY) {
+            String s = text(p, v);
+            if (s != null) {
+                out.add(s);
+            }
+        }
+        return out;
+    }
+
+    // reqId se devuelve con el mismo tipo JSON que llegó
+    private static Object scalarValue(JsonParser p, JsonToken t) throws IOException {
+        return switch (t) {
+            case VALUE_STRING -> p.getText();
+            case VALUE_NUMBER_INT -> p.getLongValue();
+            case VALUE_NUMBER_FLOAT -> p.getDoubleValue();
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            default -> {
+                p.skipChildren();
+                yield null;
+            }
+        };
+    }
+
+    private static long skip(JsonParser p) throws IOException {
+        p.skipChildren();
+        return 0L;
+    }
+
+    private static String orEmpty(String s) {
+        return s != null ? s : "";
+    }
+
+    // Campos sueltos mientras se recorre el objeto (el orden no está garantizado)
+    private static final class Fields {
+        Object reqId;
+        long deadlineMs;
+        String action;
+        String name;
+        List<String> members = List.of();
+        String toType;
+        String to;
+        String from;
+        String scope;
+        String id;
+        Long ifVersion;
+        String format;
+        Long createdAt;
+        String clientMsgId;
+        boolean hasContent;
+        String contentType;
+        String text;
+        String audioUrl;
+        List<TcpRequest> items = List.of();
+        List<TcpRequest.Topic> topics = List.of();
+    }
+}
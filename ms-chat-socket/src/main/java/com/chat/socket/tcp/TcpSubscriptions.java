@@ -0,0 +1,224 @@
+package com.chat.socket.tcp;
+
+import chat.Message;
+import com.chat.socket.store.MessageStore;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suscripciones del adaptador TCP JSON (action "subscribe").
+ * - Índice conversación -> suscripciones; el aviso del MessageStore solo agenda un "pump".
+ * - Cada suscripción lleva su cursor y lee lo nuevo con since(): los eventos salen en orden,
+ *   sin huecos, y como mucho hay un pump pendiente por suscripción.
+ * - Evento NDJSON: {"event":"message","scope":..,"id":..,"cursor":N,"item":{...}}
+ * - Contrapresión: si la salida pendiente de la conexión pasa de maxPendingBytes (un cliente
+ *   que no lee), el pump se detiene sin avanzar el cursor y sigue cuando el loop la vacía.
+ */
+final class TcpSubscriptions implements MessageStore.AppendListener {
+
+    // Mensajes que se leen del store por vuelta de pump
+    private static final int PUMP_BATCH = 256;
+
+    private final MessageStore store;
+    private final ThreadPoolExecutor pushers;
+    private final long maxPendingBytes;
+
+    private final Map<String, Set<Subscription>> byConversation = new ConcurrentHashMap<>();
+    private final Map<TcpConnection, List<Subscription>> byConnection = new ConcurrentHashMap<>();
+
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong pumps = new AtomicLong();
+    private final AtomicLong paused = new AtomicLong();
+
+    TcpSubscriptions(MessageStore store, int threads, long maxPendingBytes) {
+        this.store = store;
+        this.maxPendingBytes = maxPendingBytes;
+        int n = Math.max(1, threads);
+        AtomicInteger seq = new AtomicInteger();
+        // Cola sin tope, pero acotada en la práctica: a lo sumo un pump pendiente por suscripción
+        this.pushers = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "TcpPush-" + seq.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static String key(String scope, String id) {
+        return MessageStore.scopeOf(scope) + ":" + id;
+    }
+
+    /**
+     * Registra las suscripciones ya "agendadas" (los avisos no las disparan todavía).
+     * El pump inicial lo arranca start(), una vez encolado el ack.
+     */
+    List<Subscription> add(TcpConnection conn, List<TcpRequest.Topic> topics) {
+        List<Subscription> out = new ArrayList<>(topics.size());
+        for (TcpRequest.Topic t : topics) {
+            String scope = MessageStore.scopeOf(t.scope());
+            long last = t.after() != null ? Math.max(-1, t.after()) : store.size(scope, t.id()) - 1;
+            Subscription s = new Subscription(conn, scope, t.id(), last);
+            // Alta dentro de compute(): no se cruza con remove() vaciando el mismo set
+            byConversation.compute(key(scope, t.id()), (k, set) -> {
+                Set<Subscription> subs = set != null ? set : ConcurrentHashMap.newKeySet();
+                subs.add(s);
+                return subs;
+            });
+            byConnection.computeIfAbsent(conn, k -> new CopyOnWriteArrayList<>()).add(s);
+            out.add(s);
+        }
+        if (conn.isClosed()) {
+            // Se cerró mientras se registraba: onClosed() ya pasó, se limpia aquí
+            remove(conn);
+        }
+        return out;
+    }
+
+    int count(TcpConnection conn) {
+        List<Subscription> subs = byConnection.get(conn);
+        return subs != null ? subs.size() : 0;
+    }
+
+    void start(List<Subscription> subs) {
+        for (Subscription s : subs) {
+            pushers.execute(() -> pump(s));
+        }
+    }
+
+    void remove(TcpConnection conn) {
+        List<Subscription> subs = byConnection.remove(conn);
+        if (subs == null) {
+            return;
+        }
+        for (Subscription s : subs) {
+            s.cancelled = true;
+            String k = key(s.scope, s.id);
+            byConversation.computeIfPresent(k, (kk, set) -> {
+                set.remove(s);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    @Override
+    public void onAppend(String scope, String id) {
+        Set<Subscription> subs = byConversation.get(key(scope, id));
+        if (subs == null) {
+            return;
+        }
+        for (Subscription s : subs) {
+            if (s.scheduled.compareAndSet(false, true)) {
+                pushers.execute(() -> pump(s));
+            }
+        }
+    }
+
+    // La conexión vació su salida: siguen los pumps que se detuvieron por ella
+    private void resume(TcpConnection conn) {
+        List<Subscription> subs = byConnection.get(conn);
+        if (subs == null) {
+            return;
+        }
+        for (Subscription s : subs) {
+            if (s.scheduled.compareAndSet(false, true)) {
+                pushers.execute(() -> pump(s));
+            }
+        }
+    }
+
+    // Empuja todo lo posterior al cursor; al soltar el flag revisa si llegó algo en el medio
+    private void pump(Subscription s) {
+        pumps.incrementAndGet();
+        boolean backlogged = false;
+        try {
+            while (!s.cancelled && !s.conn.isClosed()) {
+                if (s.conn.backlogged(maxPendingBytes, () -> resume(s.conn))) {
+                    paused.incrementAndGet();
+                    backlogged = true;
+                    break;
+                }
+                Message[] ms = store.since(s.scope, s.id, s.last, PUMP_BATCH).items;
+                if (ms.length == 0) {
+                    break;
+                }
+                s.conn.send(encode(s, ms));
+                s.last += ms.length;
+                events.addAndGet(ms.length);
+            }
+        } catch (Exception e) {
+            System.out.println("[TCP] error empujando " + s.scope + "/" + s.id + ": " + e);
+        } finally {
+            s.scheduled.set(false);
+        }
+        if (backlogged) {
+            // Lo retoma resume(); si el loop ya vació la salida antes de soltar el flag, se sigue acá
+            if (s.conn.pendingBytes() > maxPendingBytes / 2 || s.cancelled) {
+                return;
+            }
+        }
+        if (!s.cancelled && store.size(s.scope, s.id) - 1 > s.last && s.scheduled.compareAndSet(false, true)) {
+            pushers.execute(() -> pump(s));
+        }
+    }
+
+    // Un evento por mensaje, cada uno con el framing del formato de la conexión
+    private byte[] encode(Subscription s, Message[] ms) throws IOException {
+        WireFormat format = s.conn.format();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128 * ms.length);
+        FrameBuffer frame = new FrameBuffer(256);
+        long cursor = s.last;
+        for (Message m : ms) {
+            frame.begin(format);
+            try (JsonGenerator g = format.factory.createGenerator(frame)) {
+                g.writeStartObject();
+                g.writeStringField("event", "message");
+                g.writeStringField("scope", s.scope);
+                g.writeStringField("id", s.id);
+                g.writeNumberField("cursor", ++cursor);
+                g.writeFieldName("item");
+                TcpJsonServer.writeItem(g, m);
+                g.writeEndObject();
+            }
+            out.write(frame.finish(format));
+        }
+        return out.toByteArray();
+    }
+
+    void shutdown() {
+        pushers.shutdownNow();
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("conversations", byConversation.size());
+        out.put("connections", byConnection.size());
+        out.put("events", events.get());
+        out.put("pumps", pumps.get());
+        out.put("paused", paused.get());
+        out.put("pending", pushers.getQueue().size());
+        return out;
+    }
+
+    static final class Subscription {
+        final TcpConnection conn;
+        final String scope;
+        final String id;
+        // Último cursor entregado; solo lo toca el pump (uno a la vez por el flag)
+        volatile long last;
+        final AtomicBoolean scheduled = new AtomicBoolean(true);
+        volatile boolean cancelled;
+
+        Subscription(TcpConnection conn, String scope, String id, long last) {
+            this.conn = conn;
+            this.scope = scope;
+            this.id = id;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.chat.socket.tcp;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+
+/**
+ * Formato de una conexión del adaptador TCP:
+ * - JSON: una petición/respuesta por línea (por defecto, compatible con todo lo anterior).
+ * - CBOR: frames [largo int32 big-endian][payload CBOR]; se pide con el handshake
+ *   {"action":"binary","format":"cbor"} como primera línea. Mismos campos y semántica.
+ * Las factories tienen codec para poder escribir el reqId tal cual llegó.
+ */
+enum WireFormat {
+
+    JSON(new ObjectMapper().getFactory()),
+    CBOR(new CBORMapper().getFactory());
+
+    static final int LENGTH_PREFIX = 4;
+
+    final JsonFactory factory;
+    final TcpRequestDecoder decoder;
+
+    WireFormat(JsonFactory factory) {
+        this.factory = factory;
+        this.decoder = new TcpRequestDecoder(factory);
+    }
+
+    boolean framed() {
+        return this != JSON;
+    }
+
+    static WireFormat byName(String name) {
+        for (WireFormat f : values()) {
+            if (f.name().equalsIgnoreCase(name)) {
+                return f;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,114 @@
+package com.chat.socket.websocket;
+
+import jakarta.annotation.PostConstruct;
+import org.apache.tomcat.websocket.PerMessageDeflate;
+import org.apache.tomcat.websocket.Transformation;
+import org.apache.tomcat.websocket.TransformationFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Conexiones y compresión por endpoint WebSocket, y el umbral de permessage-deflate.
+ * - Cada endpoint se registra con endpoint(...): el interceptor que devuelve deja sus contadores
+ *   en los atributos de la sesión, y decorate(...) los usa al abrir/cerrar.
+ * - Tomcat negocia permessage-deflate en todos los endpoints si el cliente lo ofrece (no hay
+ *   forma de apagarlo por endpoint desde Spring), así que se reemplaza su builder por uno que
+ *   envuelve el deflate original en ThresholdDeflate. La sesión se arma durante el handshake, en
+ *   el mismo hilo, y el interceptor le avisa al builder de qué endpoint es.
+ */
+@Component
+public class EndpointMetrics {
+
+    // Endpoint del handshake en curso en este hilo (entre before y afterHandshake)
+    private static final ThreadLocal<EndpointStats> HANDSHAKE = new ThreadLocal<>();
+
+    // Mensajes de texto/binario más chicos que esto no se comprimen
+    @Value("${chat.ws.deflate-min-bytes:256}")
+    private int deflateMinBytes;
+
+    private final Map<String, EndpointStats> endpoints = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void installDeflate() {
+        TransformationFactory.getInstance().registerExtension(PerMessageDeflate.NAME, (preferences, isServer) -> {
+            Transformation deflate = PerMessageDeflate.BUILDER.build(preferences, isServer);
+            if (deflate == null || !isServer) {
+                return deflate;
+            }
+            EndpointStats stats = HANDSHAKE.get();
+            return new ThresholdDeflate(deflate, stats != null ? stats.deflateMinBytes() : deflateMinBytes, stats);
+        });
+    }
+
+    /**
+     * Registra un endpoint y devuelve el interceptor de handshake que hay que agregarle.
+     * Con deflate=false se sigue aceptando la extensión (Tomcat la negocia igual) pero no se
+     * comprime nada: para /audio-socket, que ya viaja comprimido por el códec.
+     */
+    public synchronized HandshakeInterceptor endpoint(String path, boolean sockJs, boolean deflate) {
+        EndpointStats stats = new EndpointStats(sockJs, deflate ? deflateMinBytes : Integer.MAX_VALUE);
+        endpoints.put(path, stats);
+        return new HandshakeInterceptor() {
+            @Override
+            public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                           WebSocketHandler wsHandler, Map<String, Object> attributes) {
+                attributes.put(EndpointStats.ATTRIBUTE, stats);
+                HANDSHAKE.set(stats);
+                return true;
+            }
+
+            @Override
+            public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                       WebSocketHandler wsHandler, Exception exception) {
+                HANDSHAKE.remove();
+            }
+        };
+    }
+
+    /** Envuelve el handler para contar las sesiones de cada endpoint registrado. */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                EndpointStats stats = statsOf(session);
+                if (stats != null) {
+                    boolean deflate = session.getExtensions().stream()
+                            .anyMatch(e -> PerMessageDeflate.NAME.equals(e.getName()));
+                    stats.opened(deflate);
+                }
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                EndpointStats stats = statsOf(session);
+                if (stats != null) {
+                    stats.closed();
+                }
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    private static EndpointStats statsOf(WebSocketSession session) {
+        return session.getAttributes().get(EndpointStats.ATTRIBUTE) instanceof EndpointStats stats ? stats : null;
+    }
+
+    // ----- métricas -----
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        endpoints.forEach((path, stats) -> out.put(path, stats.stats()));
+        return out;
+    }
+}
@@ -0,0 +1,83 @@
+package com.chat.socket.websocket;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contadores de un endpoint WebSocket (/chat-socket, /chat-ws, /audio-socket): conexiones y,
+ * para las sesiones que negociaron permessage-deflate, cuánto se comprimió lo que se mandó.
+ * Solo cuenta la salida (servidor -> cliente), que es donde pesa el fan-out de las salas.
+ */
+public final class EndpointStats {
+
+    /** Clave en los atributos de la sesión (la pone el interceptor del handshake). */
+    public static final String ATTRIBUTE = EndpointStats.class.getName();
+
+    private final boolean sockJs;
+    // Mensajes más chicos que esto salen sin comprimir; Integer.MAX_VALUE = nunca se comprime
+    private final int deflateMinBytes;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong deflateConnections = new AtomicLong();
+    private final AtomicLong compressedMessages = new AtomicLong();
+    private final AtomicLong compressedBytesIn = new AtomicLong();
+    private final AtomicLong compressedBytesOut = new AtomicLong();
+    private final AtomicLong plainMessages = new AtomicLong();
+    private final AtomicLong plainBytes = new AtomicLong();
+
+    EndpointStats(boolean sockJs, int deflateMinBytes) {
+        this.sockJs = sockJs;
+        this.deflateMinBytes = deflateMinBytes;
+    }
+
+    int deflateMinBytes() {
+        return deflateMinBytes;
+    }
+
+    void opened(boolean deflate) {
+        sessions.incrementAndGet();
+        connections.incrementAndGet();
+        if (deflate) {
+            deflateConnections.incrementAndGet();
+        }
+    }
+
+    void closed() {
+        sessions.decrementAndGet();
+    }
+
+    void compressed(long before, long after) {
+        compressedMessages.incrementAndGet();
+        compressedBytesIn.addAndGet(before);
+        compressedBytesOut.addAndGet(after);
+    }
+
+    void plain(long bytes) {
+        plainMessages.incrementAndGet();
+        plainBytes.addAndGet(bytes);
+    }
+
+    // ----- métricas -----
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        long in = compressedBytesIn.get();
+        long compressed = compressedBytesOut.get();
+        out.put("transport", sockJs ? "sockjs" : "websocket");
+        out.put("deflateMinBytes", deflateMinBytes == Integer.MAX_VALUE ? null : deflateMinBytes);
+        out.put("sessions", sessions.get());
+        out.put("connections", connections.get());
+        out.put("deflateConnections", deflateConnections.get());
+        out.put("compressedMessages", compressedMessages.get());
+        out.put("compressedBytesIn", in);
+        out.put("compressedBytesOut", compressed);
+        // Bytes comprimidos / originales (más bajo = mejor); null mientras no haya nada comprimido
+        out.put("compressionRatio", in > 0 ? Math.round(compressed * 1000.0 / in) / 1000.0 : null);
+        out.put("uncompressedMessages", plainMessages.get());
+        out.put("uncompressedBytes", plainBytes.get());
+        return out;
+    }
+}
@@ -0,0 +1,118 @@
+package com.chat.socket.websocket;
+
+import jakarta.websocket.Extension;
+import org.apache.tomcat.websocket.MessagePart;
+import org.apache.tomcat.websocket.Transformation;
+import org.apache.tomcat.websocket.TransformationResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * permessage-deflate de Tomcat con umbral: Tomcat comprime todos los mensajes de una sesión que
+ * negoció la extensión, y en los chicos (acks, señalización, mensajes de una línea) el deflate
+ * cuesta CPU y ahorra casi nada. El RFC 7692 deja mandar cualquier mensaje sin comprimir (RSV1 en
+ * 0), así que los que no llegan a minBytes salen directo y el resto pasa por el deflate original.
+ * - La decisión es por mensaje, al ver su primera parte; un mensaje partido en varias se comprime
+ *   entero (si vino partido no es chico).
+ * - Saltarse mensajes no rompe el contexto compartido del deflater: solo avanza con lo que comprime.
+ * - La entrada (cliente -> servidor) la sigue descomprimiendo el deflate de Tomcat sin cambios.
+ */
+final class ThresholdDeflate implements Transformation {
+
+    private final Transformation deflate;
+    private final int minBytes;
+    private final EndpointStats stats;
+
+    private Transformation next;
+    // Estado del mensaje en curso (Tomcat manda las partes de una sesión de a una)
+    private boolean inMessage;
+    private boolean plain;
+
+    ThresholdDeflate(Transformation deflate, int minBytes, EndpointStats stats) {
+        this.deflate = deflate;
+        this.minBytes = minBytes;
+        this.stats = stats;
+    }
+
+    @Override
+    public List<MessagePart> sendMessagePart(List<MessagePart> parts) throws IOException {
+        List<MessagePart> out = new ArrayList<>(parts.size());
+        for (MessagePart part : parts) {
+            ByteBuffer payload = part.getPayload();
+            if (isControl(part.getOpCode())) {
+                out.addAll(passThrough(part));
+                continue;
+            }
+            if (!inMessage) {
+                inMessage = true;
+                plain = part.isFin() && payload.remaining() < minBytes;
+            }
+            if (part.isFin()) {
+                inMessage = false;
+            }
+            if (plain) {
+                if (stats != null) {
+                    stats.plain(payload.remaining());
+                }
+                out.addAll(passThrough(part));
+            } else {
+                int before = payload.remaining();
+                List<MessagePart> compressed = deflate.sendMessagePart(List.of(part));
+                if (stats != null) {
+                    long after = 0;
+                    for (MessagePart c : compressed) {
+                        after += isControl(c.getOpCode()) ? 0 : c.getPayload().remaining();
+                    }
+                    stats.compressed(before, after);
+                }
+                out.addAll(compressed);
+            }
+        }
+        return out;
+    }
+
+    private List<MessagePart> passThrough(MessagePart part) throws IOException {
+        return next == null ? List.of(part) : next.sendMessagePart(List.of(part));
+    }
+
+    // Opcodes de control (close/ping/pong) y los internos de Tomcat (flush), que tienen el bit 3
+    private static boolean isControl(byte opCode) {
+        return (opCode & 0x08) != 0;
+    }
+
+    // ----- el resto es del deflate de Tomcat -----
+
+    @Override
+    public void setNext(Transformation t) {
+        this.next = t;
+        deflate.setNext(t);
+    }
+
+    @Override
+    public boolean validateRsvBits(int i) {
+        return deflate.validateRsvBits(i);
+    }
+
+    @Override
+    public Extension getExtensionResponse() {
+        return deflate.getExtensionResponse();
+    }
+
+    @Override
+    public TransformationResult getMoreData(byte opCode, boolean fin, int rsv, ByteBuffer dest) throws IOException {
+        return deflate.getMoreData(opCode, fin, rsv, dest);
+    }
+
+    @Override
+    public boolean validateRsv(int rsv, byte opCode) {
+        return deflate.validateRsv(rsv, opCode);
+    }
+
+    @Override
+    public void close() {
+        deflate.close();
+    }
+}
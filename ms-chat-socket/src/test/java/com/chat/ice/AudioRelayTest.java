@@ -0,0 +1,123 @@
+package com.chat.ice;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioRelayTest {
+
+    private record Frame(String streamId, int index, boolean last, String data) {}
+
+    private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+    private AudioRelay relay;
+
+    @AfterEach
+    void stop() {
+        if (relay != null) {
+            relay.shutdown();
+        }
+    }
+
+    private AudioRelay relay(int maxFrameBytes, long maxFrameDelayMs, int reorderWindow) {
+        relay = new AudioRelay(2, maxFrameBytes, maxFrameDelayMs, reorderWindow,
+                (id, idx, last, frame) -> frames.add(new Frame(id, idx, last, new String(frame))));
+        return relay;
+    }
+
+    private Frame next() throws InterruptedException {
+        Frame f = frames.poll(5, TimeUnit.SECONDS);
+        assertNotNull(f, "no llegó el frame");
+        return f;
+    }
+
+    // Corre end() y espera a que el carril termine (onEnd va después del último frame)
+    private void end(String streamId) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        relay.end(streamId, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void reordersChunksWithinTheWindow() throws InterruptedException {
+        relay(1024, 60_000, 8);
+        relay.chunk("s", 2, 3, "c".getBytes());
+        relay.chunk("s", 0, 3, "a".getBytes());
+        relay.chunk("s", 1, 3, "b".getBytes());
+
+        assertEquals(new Frame("s", 0, true, "abc"), next());
+        end("s");
+        assertTrue(frames.isEmpty());
+        assertEquals(0L, relay.stats().get("endMarkers"));
+    }
+
+    @Test
+    void coalescesSmallChunksUpToMaxFrameBytes() throws InterruptedException {
+        relay(4, 60_000, 8);
+        for (int i = 0; i < 5; i++) {
+            relay.chunk("s", i, 5, ("" + (char) ('a' + 2 * i) + (char) ('b' + 2 * i)).getBytes());
+        }
+
+        assertEquals(new Frame("s", 0, false, "abcd"), next());
+        assertEquals(new Frame("s", 1, false, "efgh"), next());
+        assertEquals(new Frame("s", 2, true, "ij"), next());
+        assertEquals(3L, relay.stats().get("framesOut"));
+    }
+
+    @Test
+    void sendsAnEmptyEndMarkerWhenTheTimerAlreadyFlushedTheTail() throws InterruptedException {
+        relay(1024, 10, 8);
+        // Sin total conocido: el frame sale por el timer, no por last
+        relay.chunk("s", 0, 0, "a".getBytes());
+        assertEquals(new Frame("s", 0, false, "a"), next());
+
+        end("s");
+        assertEquals(new Frame("s", 1, true, ""), next());
+        assertEquals(1L, relay.stats().get("endMarkers"));
+    }
+
+    @Test
+    void endEmitsWhatIsLeftInTheWindowInOrder() throws InterruptedException {
+        relay(1024, 60_000, 8);
+        // Falta el 0: lo demás queda en la ventana hasta end()
+        relay.chunk("s", 2, 0, "c".getBytes());
+        relay.chunk("s", 1, 0, "b".getBytes());
+
+        end("s");
+        assertEquals(new Frame("s", 0, true, "bc"), next());
+    }
+
+    @Test
+    void dropsLateChunksAndSkipsGapsWhenTheWindowOverflows() throws InterruptedException {
+        relay(1, 60_000, 2);
+        relay.chunk("s", 0, 0, "a".getBytes());
+        assertEquals(new Frame("s", 0, false, "a"), next());
+        relay.chunk("s", 0, 0, "x".getBytes());
+
+        // El 1 no llega nunca: con la ventana llena se salta
+        relay.chunk("s", 2, 0, "c".getBytes());
+        relay.chunk("s", 3, 0, "d".getBytes());
+        relay.chunk("s", 4, 0, "e".getBytes());
+        assertEquals(new Frame("s", 1, false, "c"), next());
+        assertEquals(new Frame("s", 2, false, "d"), next());
+        assertEquals(new Frame("s", 3, false, "e"), next());
+
+        assertEquals(1L, relay.stats().get("lateDropped"));
+        assertEquals(1L, relay.stats().get("gapsSkipped"));
+    }
+
+    @Test
+    void discardDropsTheStreamWithoutEmitting() throws InterruptedException {
+        relay(1024, 60_000, 8);
+        relay.chunk("s", 1, 0, "b".getBytes());
+        relay.discard("s");
+
+        end("s");
+        assertTrue(frames.isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+package com.chat.ice;
+
+import chat.AudioRejected;
+import chat.HistoryPage;
+import com.chat.socket.service.MediaStore;
+import com.chat.socket.store.MessageLog;
+import com.chat.socket.store.MessageStore;
+import com.zeroc.Ice.Current;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatServiceITest {
+
+    @TempDir
+    Path dir;
+
+    private final Current current = new Current();
+    private MessageLog log;
+    private ChatServiceI service;
+
+    @AfterEach
+    void stop() {
+        if (service != null) {
+            service.shutdown();
+        }
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    private ChatServiceI open(IceSettings settings) throws IOException {
+        log = new MessageLog();
+        ReflectionTestUtils.setField(log, "dir", dir.toString());
+        ReflectionTestUtils.setField(log, "segmentBytes", 1 << 20);
+        ReflectionTestUtils.setField(log, "commitWindowMs", 5L);
+        log.open();
+        MessageStore store = new MessageStore(log);
+        ReflectionTestUtils.setField(store, "dedupWindowMs", 600_000L);
+        ReflectionTestUtils.setField(store, "dedupMaxEntries", 1024);
+        store.load();
+        service = new ChatServiceI(settings, store, new MediaStore());
+        return service;
+    }
+
+    @Test
+    void beginAudioOverBudgetThrowsAudioRejected() throws Exception {
+        IceSettings settings = new IceSettings();
+        // Sin presupuesto: cualquier stream nuevo queda por encima
+        settings.setAudioMaxBufferedBytes(0);
+        ChatServiceI ice = open(settings);
+
+        AudioRejected e = assertThrows(AudioRejected.class,
+                () -> ice.beginAudio("user", "bob", "ana", "audio/webm", current));
+        assertEquals("audio_budget_exceeded", e.reason);
+        assertEquals(1L, ice.stats().get("audioStreamsRejected"));
+        assertEquals(0, ice.stats().get("audioStreams"));
+    }
+
+    @Test
+    void theReaperExpiresIdleStreams() throws Exception {
+        IceSettings settings = new IceSettings();
+        settings.setAudioIdleTimeoutMs(20);
+        settings.setAudioSweepIntervalMs(10);
+        ChatServiceI ice = open(settings);
+
+        String sid = ice.beginAudio("user", "bob", "ana", "audio/webm", current);
+        assertEquals(1, ice.stats().get("audioStreams"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        // El contador sube después de sacar el stream del mapa: se espera por el contador
+        while ((long) ice.stats().get("audioStreamsExpired") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, ice.stats().get("audioStreams"));
+        assertEquals(1L, ice.stats().get("audioStreamsExpired"));
+
+        // Un chunk tardío del stream expirado se ignora
+        ice.sendAudioChunk(sid, 0, 1, new byte[]{1}, current);
+        assertEquals(0, ice.stats().get("audioStreams"));
+    }
+
+    private static List<String> texts(HistoryPage page) {
+        return Arrays.stream(page.items).map(m -> m.text).toList();
+    }
+
+    @Test
+    void historyPagesAreCappedAtTheMaxPageSize() throws IOException {
+        IceSettings settings = new IceSettings();
+        settings.setHistoryMaxPageSize(3);
+        ChatServiceI ice = open(settings);
+        for (int i = 0; i < 5; i++) {
+            ice.sendText("group", "g1", "ana", "t" + i, current);
+        }
+
+        // limit <= 0 o mayor que el máximo: página del máximo
+        HistoryPage last = ice.getHistoryPage("group", "g1", -1, 0, current);
+        assertEquals(2, last.firstCursor);
+        assertEquals(List.of("t2", "t3", "t4"), texts(last));
+
+        HistoryPage before = ice.getHistoryPage("group", "g1", last.firstCursor, 100, current);
+        assertEquals(0, before.firstCursor);
+        assertEquals(List.of("t0", "t1"), texts(before));
+
+        HistoryPage since = ice.getHistorySince("group", "g1", -1, Integer.MAX_VALUE, current);
+        assertEquals(List.of("t0", "t1", "t2"), texts(since));
+        HistoryPage next = ice.getHistorySince("group", "g1", since.firstCursor + since.items.length - 1, 2, current);
+        assertEquals(3, next.firstCursor);
+        assertEquals(List.of("t3", "t4"), texts(next));
+
+        assertEquals(0, ice.getHistorySince("group", "g1", Long.MAX_VALUE, 10, current).items.length);
+    }
+}
@@ -0,0 +1,162 @@
+package com.chat.ice;
+
+import chat.ChatClientPrx;
+import chat.Message;
+import chat.MessageType;
+import com.zeroc.Ice.Connection;
+import com.zeroc.Ice.ConnectionClose;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientOutboxTest {
+
+    /** Cliente lento de mentira: cada envío queda en vuelo hasta que el test lo completa. */
+    private static class FakeClient {
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        final List<CompletableFuture<Void>> inFlight = new CopyOnWriteArrayList<>();
+        final List<ConnectionClose> closes = new CopyOnWriteArrayList<>();
+
+        final Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Connection.class}, (p, method, args) -> {
+                    if (method.getName().equals("close")) {
+                        closes.add((ConnectionClose) args[0]);
+                    }
+                    return null;
+                });
+
+        final ChatClientPrx proxy = (ChatClientPrx) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ChatClientPrx.class}, (p, method, args) -> switch (method.getName()) {
+                    case "onMessageAsync" -> send(((Message) args[0]).text);
+                    case "onAudioChunkAsync" -> send("chunk" + args[1]);
+                    case "onAudioEndAsync" -> send("end");
+                    case "ice_getCachedConnection" -> connection;
+                    case "hashCode" -> System.identityHashCode(p);
+                    case "equals" -> p == args[0];
+                    case "toString" -> "FakeClient";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+
+        private CompletableFuture<Void> send(String what) {
+            sent.add(what);
+            CompletableFuture<Void> f = new CompletableFuture<>();
+            inFlight.add(f);
+            return f;
+        }
+
+        // Completa el envío en vuelo más viejo; el outbox sigue con el siguiente en este hilo
+        void ack() {
+            inFlight.remove(0).complete(null);
+        }
+    }
+
+    private static Message text(String text) {
+        return new Message("id-" + text, "ana", "bob", "user", MessageType.TEXT, text, "", 0L, "", 0.0);
+    }
+
+    @Test
+    void dropOldestAudioDropsQueuedChunksBeforeMessages() {
+        FakeClient client = new FakeClient();
+        ClientOutbox outbox = new ClientOutbox("bob", client.proxy, 2,
+                ClientOutbox.OverflowPolicy.DROP_OLDEST_AUDIO, 0, o -> fail("no desconecta"));
+
+        assertTrue(outbox.offerMessage(text("m0")));                       // en vuelo
+        assertTrue(outbox.offerAudioChunk("s", 1, 3, new byte[1], "audio/webm"));
+        assertTrue(outbox.offerMessage(text("m2")));                       // cola llena
+        assertTrue(outbox.offerMessage(text("m3")));                       // sale chunk1
+
+        while (!client.inFlight.isEmpty()) {
+            client.ack();
+        }
+        assertEquals(List.of("m0", "m2", "m3"), client.sent);
+        assertEquals(1L, outbox.stats().get("dropped"));
+        assertEquals(3L, outbox.stats().get("sent"));
+    }
+
+    @Test
+    void dropOldestAudioFallsBackToTheOldestItemWithoutAudio() {
+        FakeClient client = new FakeClient();
+        ClientOutbox outbox = new ClientOutbox("bob", client.proxy, 1,
+                ClientOutbox.OverflowPolicy.DROP_OLDEST_AUDIO, 0, o -> fail("no desconecta"));
+
+        outbox.offerMessage(text("m0"));
+        outbox.offerMessage(text("m1"));
+        outbox.offerMessage(text("m2"));
+
+        while (!client.inFlight.isEmpty()) {
+            client.ack();
+        }
+        assertEquals(List.of("m0", "m2"), client.sent);
+    }
+
+    @Test
+    void disconnectClosesTheClientConnectionAndCountsIt() {
+        FakeClient client = new FakeClient();
+        List<ClientOutbox> disconnected = new ArrayList<>();
+        ClientOutbox outbox = new ClientOutbox("bob", client.proxy, 1,
+                ClientOutbox.OverflowPolicy.DISCONNECT, 0, disconnected::add);
+
+        assertTrue(outbox.offerMessage(text("m0")));
+        assertTrue(outbox.offerMessage(text("m1")));
+        assertFalse(outbox.offerMessage(text("m2")));
+
+        assertEquals(List.of(outbox), disconnected);
+        assertEquals(List.of(ConnectionClose.Gracefully), client.closes);
+        assertEquals(1L, outbox.stats().get("disconnects"));
+        assertEquals(2L, outbox.stats().get("dropped"));
+
+        // Ya cerrado: no encola nada más ni vuelve a desconectar
+        assertFalse(outbox.offerMessage(text("m3")));
+        client.ack();
+        assertEquals(List.of("m0"), client.sent);
+        assertEquals(1, client.closes.size());
+    }
+
+    @Test
+    void blockGivesUpAfterTheTimeout() {
+        FakeClient client = new FakeClient();
+        ClientOutbox outbox = new ClientOutbox("bob", client.proxy, 1,
+                ClientOutbox.OverflowPolicy.BLOCK, 50, o -> fail("no desconecta"));
+
+        outbox.offerMessage(text("m0"));
+        outbox.offerMessage(text("m1"));
+        assertFalse(outbox.offerMessage(text("m2")));
+        assertEquals(1L, outbox.stats().get("dropped"));
+    }
+
+    @Test
+    void blockResumesTheSenderWhenSpaceFreesUp() throws Exception {
+        FakeClient client = new FakeClient();
+        ClientOutbox outbox = new ClientOutbox("bob", client.proxy, 1,
+                ClientOutbox.OverflowPolicy.BLOCK, 5000, o -> fail("no desconecta"));
+        outbox.offerMessage(text("m0"));
+        outbox.offerMessage(text("m1"));
+
+        ExecutorService sender = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> blocked = sender.submit(() -> outbox.offerMessage(text("m2")));
+            Thread.sleep(50);
+            assertFalse(blocked.isDone());
+
+            // Termina m0 y m1 pasa a estar en vuelo: se libera el lugar en la cola
+            client.ack();
+            assertTrue(blocked.get(5, TimeUnit.SECONDS));
+        } finally {
+            sender.shutdownNow();
+        }
+        client.ack();
+        client.ack();
+        assertEquals(List.of("m0", "m1", "m2"), client.sent);
+        assertEquals(0L, outbox.stats().get("dropped"));
+    }
+}
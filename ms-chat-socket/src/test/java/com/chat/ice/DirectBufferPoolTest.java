@@ -0,0 +1,86 @@
+package com.chat.ice;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectBufferPoolTest {
+
+    @Test
+    void neverAllocatesPastTheBudget() {
+        DirectBufferPool pool = new DirectBufferPool(1024, 3 * 1024);
+        List<ByteBuffer> slabs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer b = pool.acquire();
+            assertNotNull(b);
+            assertTrue(b.isDirect());
+            assertEquals(1024, b.capacity());
+            slabs.add(b);
+        }
+        assertNull(pool.acquire());
+        assertEquals(3L * 1024, pool.bytesInUse());
+        assertEquals(1L, pool.stats().get("exhausted"));
+        assertEquals(3, pool.stats().get("allocatedSlabs"));
+    }
+
+    @Test
+    void releasedSlabsAreReusedCleared() {
+        DirectBufferPool pool = new DirectBufferPool(1024, 1024);
+        ByteBuffer b = pool.acquire();
+        b.put(new byte[100]);
+        pool.release(b);
+        assertEquals(0L, pool.bytesInUse());
+
+        ByteBuffer again = pool.acquire();
+        assertSame(b, again);
+        assertEquals(0, again.position());
+        assertEquals(1024, again.limit());
+        assertEquals(1L, pool.stats().get("hits"));
+        assertEquals(1L, pool.stats().get("misses"));
+    }
+
+    @Test
+    void clampsTheSlabSizeAndKeepsAtLeastOneSlab() {
+        DirectBufferPool pool = new DirectBufferPool(10, 0);
+        assertEquals(1024, pool.slabBytes());
+        assertNotNull(pool.acquire());
+        assertNull(pool.acquire());
+    }
+
+    @Test
+    void concurrentAcquiresStayWithinTheBudget() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(1024, 16 * 1024);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> got = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                got.add(threads.submit(() -> {
+                    int n = 0;
+                    for (int i = 0; i < 10; i++) {
+                        if (pool.acquire() != null) {
+                            n++;
+                        }
+                    }
+                    return n;
+                }));
+            }
+            int total = 0;
+            for (Future<Integer> f : got) {
+                total += f.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(16, total);
+            assertEquals(16, pool.stats().get("allocatedSlabs"));
+            assertEquals(64L, pool.stats().get("exhausted"));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.chat.socket.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AudioFrameTest {
+
+    private static ByteBuffer frame(int version, int flags, String room, String stream, int index, int audioBytes) {
+        byte[] r = room.getBytes(StandardCharsets.UTF_8);
+        byte[] s = stream.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(AudioFrame.HEADER_BYTES + r.length + s.length + audioBytes);
+        b.put((byte) version).put((byte) flags).put((byte) r.length).put((byte) s.length).putInt(index);
+        b.put(r).put(s).put(new byte[audioBytes]);
+        return b.flip();
+    }
+
+    @Test
+    void readsTheHeader() {
+        AudioFrame f = AudioFrame.read(frame(1, AudioFrame.FLAG_LAST, "sala-ñ", "s1", 42, 100));
+        assertNotNull(f);
+        assertEquals("sala-ñ", f.room());
+        assertEquals(42, f.index());
+        assertTrue(f.last());
+
+        assertFalse(AudioFrame.read(frame(1, 0, "r", "s", 0, 0)).last());
+    }
+
+    @Test
+    void readsFromTheBufferPositionWithoutMovingIt() {
+        ByteBuffer inner = frame(1, 0, "r1", "s1", 7, 10);
+        ByteBuffer b = ByteBuffer.allocate(3 + inner.remaining());
+        b.put(new byte[3]).put(inner).flip().position(3);
+
+        AudioFrame f = AudioFrame.read(b);
+        assertEquals("r1", f.room());
+        assertEquals(7, f.index());
+        assertEquals(3, b.position());
+    }
+
+    @Test
+    void rejectsInvalidHeaders() {
+        assertNull(AudioFrame.read(ByteBuffer.allocate(4)));
+        assertNull(AudioFrame.read(frame(2, 0, "r", "s", 0, 0)));
+        assertNull(AudioFrame.read(frame(1, 0, "", "s", 0, 0)));
+        assertNull(AudioFrame.read(frame(1, 0, "r", "", 0, 0)));
+
+        // Largos que se salen del frame
+        ByteBuffer cut = frame(1, 0, "room", "stream", 0, 0);
+        cut.limit(AudioFrame.HEADER_BYTES + 5);
+        assertNull(AudioFrame.read(cut));
+    }
+}
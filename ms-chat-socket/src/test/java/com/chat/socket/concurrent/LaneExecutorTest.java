@@ -0,0 +1,123 @@
+package com.chat.socket.concurrent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaneExecutorTest {
+
+    private LaneExecutor lanes;
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void stop() {
+        lanes.shutdown();
+        callers.shutdownNow();
+    }
+
+    // Espera a que el carril de key termine lo encolado hasta ahora
+    private void sync(Object key) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        lanes.execute(key, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void runsTheSameKeyInOrder() throws Exception {
+        lanes = new LaneExecutor("test", 4);
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int n = i;
+            lanes.execute("sala", () -> seen.add(n));
+        }
+        sync("sala");
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, seen.get(i));
+        }
+    }
+
+    @Test
+    void aFailingTaskDoesNotStopTheLane() throws Exception {
+        List<RuntimeException> reported = new CopyOnWriteArrayList<>();
+        lanes = new LaneExecutor("test", 1, reported::add);
+        lanes.execute("k", () -> {
+            throw new IllegalStateException("falla");
+        });
+        sync("k");
+        assertEquals(1L, lanes.stats().get("failures"));
+        assertEquals("falla", reported.get(0).getMessage());
+    }
+
+    @Test
+    void executeAfterDoesNotHoldOtherKeysOfTheSameLane() throws Exception {
+        lanes = new LaneExecutor("test", 1);
+        CountDownLatch inFirst = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> slow = callers.submit(() -> lanes.executeAfter("a", () -> {
+            inFirst.countDown();
+            await(release);
+        }, () -> {}));
+        assertTrue(inFirst.await(5, TimeUnit.SECONDS));
+
+        // Otra clave del mismo (único) carril no espera al store lento de "a"
+        Future<?> other = callers.submit(() -> lanes.executeAfter("b", () -> {}, () -> {}));
+        other.get(5, TimeUnit.SECONDS);
+        assertFalse(slow.isDone());
+
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void executeAfterQueuesTasksInTheOrderTheFirstStepsRan() throws Exception {
+        lanes = new LaneExecutor("test", 2);
+        List<String> firsts = new CopyOnWriteArrayList<>();
+        List<String> tasks = new CopyOnWriteArrayList<>();
+        CountDownLatch inFirst = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<?> one = callers.submit(() -> lanes.executeAfter("k", () -> {
+            inFirst.countDown();
+            await(release);
+            firsts.add("1");
+        }, () -> tasks.add("1")));
+        assertTrue(inFirst.await(5, TimeUnit.SECONDS));
+        Future<?> two = callers.submit(() -> lanes.executeAfter("k", () -> firsts.add("2"), () -> tasks.add("2")));
+
+        // El segundo espera su turno aunque su first sea inmediato
+        assertThrows(TimeoutException.class, () -> two.get(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        one.get(5, TimeUnit.SECONDS);
+        two.get(5, TimeUnit.SECONDS);
+        sync("k");
+        assertEquals(List.of("1", "2"), firsts);
+        assertEquals(List.of("1", "2"), tasks);
+    }
+
+    @Test
+    void aFailingFirstStepQueuesNothingAndPassesTheTurn() throws Exception {
+        lanes = new LaneExecutor("test", 1);
+        List<String> tasks = new CopyOnWriteArrayList<>();
+        assertThrows(IllegalArgumentException.class, () -> lanes.executeAfter("k", () -> {
+            throw new IllegalArgumentException("store falló");
+        }, () -> tasks.add("nunca")));
+
+        lanes.executeAfter("k", () -> {}, () -> tasks.add("siguiente"));
+        sync("k");
+        assertEquals(List.of("siguiente"), tasks);
+        // El encolado por sync() también cuenta
+        assertEquals(2L, lanes.stats().get("tasks"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
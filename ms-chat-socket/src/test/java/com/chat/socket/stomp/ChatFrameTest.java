@@ -0,0 +1,87 @@
+package com.chat.socket.stomp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatFrameTest {
+
+    private static ChatFrame scan(String json) throws IOException {
+        return ChatFrame.scan(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void readsTextMessages() throws IOException {
+        ChatFrame f = scan("{\"id\":\"x1\",\"user\":\"ana\",\"message\":\"hola\",\"createdAt\":1000,\"extra\":{\"a\":[1,2]}}");
+        assertEquals(List.of("id", "user", "message", "createdAt", "extra"), f.keys());
+        assertEquals("x1", f.id());
+        assertEquals("ana", f.user());
+        assertEquals("hola", f.message());
+        assertEquals(1000L, f.createdAt());
+        assertNull(f.audioUrl());
+        assertFalse(f.signal());
+    }
+
+    @Test
+    void onlyTakesFieldsOfTheExpectedType() throws IOException {
+        ChatFrame f = scan("{\"user\":7,\"message\":{\"no\":1},\"createdAt\":\"ayer\",\"duration\":\"2\",\"audioUrl\":3}");
+        assertEquals("7", f.user());
+        assertNull(f.message());
+        assertNull(f.createdAt());
+        assertNull(f.duration());
+        assertNull(f.audioUrl());
+    }
+
+    @Test
+    void detectsSignalling() throws IOException {
+        assertTrue(scan("{\"user\":\"ana\",\"signalType\":\"offer\",\"sdp\":\"v=0\"}").signal());
+        assertFalse(scan("{\"user\":\"ana\",\"signalType\":null}").signal());
+    }
+
+    @Test
+    void readsTheFrontendAudioUrlShape() throws IOException {
+        ChatFrame f = scan("{\"id\":\"a1\",\"type\":\"audio-url\",\"url\":\"/media/a.webm\",\"mimeType\":\"audio/webm\","
+                + "\"duration\":2.5,\"user\":\"ana\",\"createdAt\":5}");
+        assertEquals("/media/a.webm", f.audioUrl());
+        assertEquals("audio/webm", f.mimeType());
+        assertEquals(2.5, f.duration());
+
+        // url sin type audio-url no es audio
+        assertNull(scan("{\"type\":\"link\",\"url\":\"http://x\"}").audioUrl());
+        // si viene audioUrl, manda ese
+        assertEquals("/media/b.webm", scan("{\"audioUrl\":\"/media/b.webm\",\"type\":\"audio-url\",\"url\":\"/media/a.webm\"}").audioUrl());
+    }
+
+    @Test
+    void measuresInlineAudioWithoutDecodingIt() throws IOException {
+        String b64 = "A".repeat(1000);
+        ChatFrame middle = scan("{\"user\":\"ana\",\"audioBase64\":\"" + b64 + "\",\"mimeType\":\"audio/webm\"}");
+        assertTrue(middle.inlineAudioBytes() >= 1000 && middle.inlineAudioBytes() <= 1004, "" + middle.inlineAudioBytes());
+        assertEquals("audio/webm", middle.mimeType());
+
+        ChatFrame last = scan("{\"user\":\"ana\",\"audioBase64\":\"" + b64 + "\"}");
+        assertTrue(last.inlineAudioBytes() >= 1000 && last.inlineAudioBytes() <= 1004, "" + last.inlineAudioBytes());
+
+        assertEquals(0, scan("{\"audioBase64\":null}").inlineAudioBytes());
+    }
+
+    @Test
+    void rejectsInvalidPayloads() {
+        assertThrows(IOException.class, () -> scan("[1,2]"));
+        assertThrows(IOException.class, () -> scan("{\"user\":\"ana\""));
+        assertThrows(IOException.class, () -> scan("{\"user\":\"ana\"} {}"));
+    }
+
+    @Test
+    void withAudioUrlSwapsInlineAudioForTheUrl() throws IOException {
+        ChatFrame f = scan("{\"id\":\"v1\",\"user\":\"ana\",\"audioBase64\":\"AAAA\",\"mimeType\":\"audio/webm\"}")
+                .withAudioUrl("/media/v1.webm");
+        assertEquals(List.of("id", "user", "mimeType", "type", "url"), f.keys());
+        assertEquals("/media/v1.webm", f.audioUrl());
+        assertEquals(0, f.inlineAudioBytes());
+    }
+}
@@ -0,0 +1,92 @@
+package com.chat.socket.stomp;
+
+import com.chat.socket.service.MediaStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InlineAudioOffloadTest {
+
+    /** MediaStore en memoria: no escribe en uploads/ y puede quedar trabado en save(). */
+    private static class FakeMedia extends MediaStore {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        volatile boolean hold;
+
+        @Override
+        public String save(byte[] data, String ext) throws IOException {
+            entered.countDown();
+            if (hold) {
+                try {
+                    proceed.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return "clip." + ext;
+        }
+    }
+
+    private static byte[] payload() {
+        String audio = Base64.getEncoder().encodeToString(new byte[300]);
+        return ("{\"user\":\"ana\",\"mimeType\":\"audio/webm\",\"audioBase64\":\"" + audio + "\"}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static InlineAudioOffload offload(MediaStore media, int maxConcurrent) {
+        InlineAudioOffload out = new InlineAudioOffload(media);
+        ReflectionTestUtils.setField(out, "maxInlineBytes", 100);
+        ReflectionTestUtils.setField(out, "maxConcurrent", maxConcurrent);
+        out.init();
+        return out;
+    }
+
+    @Test
+    void replacesInlineAudioWithAUrl() throws IOException {
+        InlineAudioOffload offload = offload(new FakeMedia(), 1);
+        InlineAudioOffload.Result r = offload.offload(payload(), ChatFrame.scan(payload()));
+
+        assertNotNull(r);
+        String json = new String(r.payload(), StandardCharsets.UTF_8);
+        assertFalse(json.contains("audioBase64"));
+        assertTrue(json.endsWith("\"type\":\"audio-url\",\"url\":\"/media/clip.webm\"}"));
+        assertEquals("/media/clip.webm", r.frame().audioUrl());
+        assertEquals(1L, offload.stats().get("offloaded"));
+    }
+
+    @Test
+    void overTheConcurrencyCapTheFrameGoesInlineAndIsCounted() throws Exception {
+        FakeMedia media = new FakeMedia();
+        media.hold = true;
+        InlineAudioOffload offload = offload(media, 1);
+        ChatFrame frame = ChatFrame.scan(payload());
+
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            Future<InlineAudioOffload.Result> busy = other.submit(() -> offload.offload(payload(), frame));
+            assertTrue(media.entered.await(5, TimeUnit.SECONDS));
+
+            // El único lugar está ocupado: no se espera, sale el original
+            assertNull(offload.offload(payload(), frame));
+            assertEquals(1L, offload.stats().get("rejected"));
+
+            media.proceed.countDown();
+            assertNotNull(busy.get(5, TimeUnit.SECONDS));
+        } finally {
+            other.shutdownNow();
+        }
+        // Con el lugar libre vuelve a sacar el audio
+        assertNotNull(offload.offload(payload(), frame));
+        assertEquals(2L, offload.stats().get("offloaded"));
+    }
+}
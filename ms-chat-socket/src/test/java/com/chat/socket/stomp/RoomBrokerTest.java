@@ -0,0 +1,156 @@
+package com.chat.socket.stomp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomBrokerTest {
+
+    private final BlockingQueue<Message<?>> sent = new LinkedBlockingQueue<>();
+    private RoomBroker broker;
+
+    @BeforeEach
+    void start() {
+        ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+        outbound.subscribe(sent::add);
+        broker = new RoomBroker(new ExecutorSubscribableChannel(), outbound, new ExecutorSubscribableChannel(),
+                List.of("/topic/"), 2);
+        broker.start();
+    }
+
+    @AfterEach
+    void stop() {
+        broker.stop();
+    }
+
+    private void send(SimpMessageType type, String session, String subscription, String destination) {
+        SimpMessageHeaderAccessor h = SimpMessageHeaderAccessor.create(type);
+        h.setSessionId(session);
+        if (subscription != null) {
+            h.setSubscriptionId(subscription);
+        }
+        if (destination != null) {
+            h.setDestination(destination);
+        }
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], h.getMessageHeaders()));
+    }
+
+    private void publish(String destination, String text) {
+        SimpMessageHeaderAccessor h = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        h.setDestination(destination);
+        broker.handleMessage(MessageBuilder.createMessage(text.getBytes(StandardCharsets.UTF_8), h.getMessageHeaders()));
+    }
+
+    // Entregas de tipo MESSAGE como "sesión/suscripción:payload", esperando hasta tener n
+    private List<String> deliveries(int n) throws InterruptedException {
+        List<String> out = new ArrayList<>();
+        while (out.size() < n) {
+            Message<?> m = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(m, "faltan entregas, llegaron " + out);
+            if (SimpMessageHeaderAccessor.getMessageType(m.getHeaders()) == SimpMessageType.MESSAGE) {
+                out.add(SimpMessageHeaderAccessor.getSessionId(m.getHeaders()) + "/"
+                        + SimpMessageHeaderAccessor.getSubscriptionId(m.getHeaders()) + ":"
+                        + new String((byte[]) m.getPayload(), StandardCharsets.UTF_8));
+            }
+        }
+        return out;
+    }
+
+    // La sala se reparte en orden: si lo único que llega es el marcador, no hubo otras entregas antes
+    private void assertNothingMoreFor(String destination, String marker, String subscriber) throws InterruptedException {
+        publish(destination, marker);
+        assertEquals(List.of(subscriber + ":" + marker), deliveries(1));
+    }
+
+    @Test
+    void deliversOnlyToTheRoomsSubscribers() throws InterruptedException {
+        send(SimpMessageType.SUBSCRIBE, "s1", "a", "/topic/sala1");
+        send(SimpMessageType.SUBSCRIBE, "s2", "b", "/topic/sala1");
+        send(SimpMessageType.SUBSCRIBE, "s3", "c", "/topic/sala2");
+
+        publish("/topic/sala1", "hola");
+        List<String> got = deliveries(2);
+        got.sort(null);
+        assertEquals(List.of("s1/a:hola", "s2/b:hola"), got);
+
+        publish("/topic/nadie", "x");
+        assertEquals(1L, broker.stats().get("unrouted"));
+        assertEquals(3L, broker.stats().get("subscriptions"));
+    }
+
+    @Test
+    void keepsTheOrderWithinARoom() throws InterruptedException {
+        send(SimpMessageType.SUBSCRIBE, "s1", "a", "/topic/sala1");
+        for (int i = 0; i < 50; i++) {
+            publish("/topic/sala1", "m" + i);
+        }
+        List<String> got = deliveries(50);
+        for (int i = 0; i < 50; i++) {
+            assertEquals("s1/a:m" + i, got.get(i));
+        }
+    }
+
+    @Test
+    void unsubscribeStopsDelivery() throws InterruptedException {
+        send(SimpMessageType.SUBSCRIBE, "s1", "a", "/topic/sala1");
+        send(SimpMessageType.SUBSCRIBE, "s2", "b", "/topic/sala1");
+        send(SimpMessageType.UNSUBSCRIBE, "s1", "a", null);
+
+        assertNothingMoreFor("/topic/sala1", "despues", "s2/b");
+        assertEquals(1L, broker.stats().get("subscriptions"));
+    }
+
+    @Test
+    void resubscribingWithTheSameIdMovesTheSubscription() throws InterruptedException {
+        send(SimpMessageType.SUBSCRIBE, "s1", "a", "/topic/sala1");
+        send(SimpMessageType.SUBSCRIBE, "s1", "a", "/topic/sala2");
+
+        publish("/topic/sala1", "vieja");
+        assertNothingMoreFor("/topic/sala2", "nueva", "s1/a");
+        assertEquals(1, broker.stats().get("destinations"));
+    }
+
+    @Test
+    void connectAndDisconnectAreAcknowledgedAndDisconnectDropsEverySubscription() throws InterruptedException {
+        send(SimpMessageType.CONNECT, "s1", null, null);
+        Message<?> ack = sent.poll(5, TimeUnit.SECONDS);
+        assertEquals(SimpMessageType.CONNECT_ACK, SimpMessageHeaderAccessor.getMessageType(ack.getHeaders()));
+        assertEquals("s1", SimpMessageHeaderAccessor.getSessionId(ack.getHeaders()));
+
+        send(SimpMessageType.SUBSCRIBE, "s1", "a", "/topic/sala1");
+        send(SimpMessageType.SUBSCRIBE, "s1", "b", "/topic/sala2");
+        send(SimpMessageType.SUBSCRIBE, "s2", "c", "/topic/sala1");
+        send(SimpMessageType.DISCONNECT, "s1", null, null);
+
+        ack = sent.poll(5, TimeUnit.SECONDS);
+        assertEquals(SimpMessageType.DISCONNECT_ACK, SimpMessageHeaderAccessor.getMessageType(ack.getHeaders()));
+        assertEquals(1, broker.stats().get("sessions"));
+        assertEquals(1, broker.stats().get("destinations"));
+
+        publish("/topic/sala2", "x");
+        assertEquals(1L, broker.stats().get("unrouted"));
+        assertNothingMoreFor("/topic/sala1", "queda", "s2/c");
+    }
+
+    @Test
+    void ignoresDestinationsOutsideItsPrefixes() throws InterruptedException {
+        send(SimpMessageType.SUBSCRIBE, "s1", "a", "/queue/privada");
+        publish("/queue/privada", "x");
+        assertEquals(0L, broker.stats().get("published"));
+        assertEquals(0L, broker.stats().get("subscriptions"));
+    }
+}
@@ -0,0 +1,122 @@
+package com.chat.socket.store;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedHistoryTest {
+
+    @Test
+    void positionsAreStableAcrossChunks() {
+        ChunkedHistory<Integer> list = new ChunkedHistory<>();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, list.append(i));
+        }
+        assertEquals(1000, list.size());
+        assertEquals(127, list.get(127));
+        assertEquals(128, list.get(128));
+        assertArrayEquals(IntStream.range(120, 260).boxed().toArray(), list.range(120, 260, Integer[]::new));
+
+        List<Integer> seen = new ArrayList<>();
+        list.forEach(250, 260, seen::add);
+        assertEquals(IntStream.range(250, 260).boxed().toList(), seen);
+    }
+
+    @Test
+    void smallHistoriesDoNotCreateThePageIndex() {
+        ChunkedHistory<Integer> list = new ChunkedHistory<>();
+        assertNull(((AtomicReference<?>) ReflectionTestUtils.getField(list, "firstPage")).get());
+
+        for (int i = 0; i < 128 * 256; i++) {
+            list.append(i);
+        }
+        assertNull(((AtomicReference<?>) ReflectionTestUtils.getField(list, "pages")).get());
+        list.append(-1);
+        assertNotNull(((AtomicReference<?>) ReflectionTestUtils.getField(list, "pages")).get());
+        assertEquals(-1, list.get(128 * 256));
+        assertEquals(128 * 256 - 1, list.get(128 * 256 - 1));
+    }
+
+    @Test
+    void failsCleanlyWhenFull() {
+        ChunkedHistory<Integer> list = new ChunkedHistory<>(3);
+        list.append(0);
+        list.append(1);
+        assertThrows(IllegalStateException.class, () -> list.ensureRoom(2));
+        assertThrows(IllegalStateException.class, () -> list.reserve(2));
+        list.ensureRoom(1);
+        list.append(2);
+        assertThrows(IllegalStateException.class, () -> list.append(3));
+        assertEquals(3, list.size());
+        assertThrows(IllegalArgumentException.class, () -> new ChunkedHistory<Integer>(ChunkedHistory.CAPACITY + 1));
+    }
+
+    @Test
+    void reservedSlotsBecomeVisibleInOrder() {
+        ChunkedHistory<String> list = new ChunkedHistory<>();
+        int a = list.reserve(1);
+        int b = list.reserve(2);
+        assertEquals(0, a);
+        assertEquals(1, b);
+
+        list.publish(b + 1, "c");
+        list.publish(b, "b");
+        assertEquals(0, list.size());
+        list.publish(a, "a");
+        assertEquals(3, list.size());
+        assertArrayEquals(new String[]{"a", "b", "c"}, list.toArray(String[]::new));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.publish(3, "d"));
+    }
+
+    @Test
+    void rejectsNull() {
+        assertThrows(IllegalArgumentException.class, () -> new ChunkedHistory<String>().append(null));
+    }
+
+    @Test
+    void concurrentAppendsPublishAContiguousPrefix() throws InterruptedException {
+        ChunkedHistory<Integer> list = new ChunkedHistory<>();
+        int threads = 4;
+        int perThread = 5000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger gaps = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    list.append(i);
+                    // Lo visible nunca tiene huecos
+                    if (list.get(list.size() - 1) == null) {
+                        gaps.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(0, gaps.get());
+
+        assertEquals(threads * perThread, list.size());
+        assertEquals(threads * perThread, list.toArray(Integer[]::new).length);
+        for (Integer v : list.toArray(Integer[]::new)) {
+            assertNotNull(v);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.chat.socket.store;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DedupIndexTest {
+
+    @Test
+    void aRepeatedKeyIsADuplicateInsideTheWindow() {
+        DedupIndex index = new DedupIndex(1000, 1024);
+        assertTrue(index.claim("ana\nc1", 0));
+        assertFalse(index.claim("ana\nc1", 999));
+        assertTrue(index.claim("ana\nc2", 999));
+        assertEquals(1L, index.stats().get("duplicates"));
+    }
+
+    @Test
+    void keysExpireAfterTheWindow() {
+        DedupIndex index = new DedupIndex(1000, 1024);
+        index.claim("ana\nc1", 0);
+        assertTrue(index.claim("ana\nc1", 1000));
+        assertEquals(1L, index.stats().get("entries"));
+    }
+
+    @Test
+    void releasedKeysCanBeClaimedAgain() {
+        DedupIndex index = new DedupIndex(1000, 1024);
+        index.claim("ana\nc1", 0);
+        index.release("ana\nc1");
+        assertTrue(index.claim("ana\nc1", 1));
+        // Soltar algo que no está no hace nada
+        index.release("nadie\nc9");
+        assertFalse(index.claim("ana\nc1", 2));
+    }
+
+    @Test
+    void staysBoundedByEvictingTheOldest() {
+        // 16 shards de 1 entrada cada uno
+        DedupIndex index = new DedupIndex(60_000, 16);
+        for (int i = 0; i < 1000; i++) {
+            index.claim("k" + i, i);
+        }
+        assertTrue((long) index.stats().get("entries") <= 16);
+        assertTrue((long) index.stats().get("evicted") >= 1000 - 16);
+    }
+}
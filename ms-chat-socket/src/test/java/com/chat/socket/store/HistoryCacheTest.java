@@ -0,0 +1,62 @@
+package com.chat.socket.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryCacheTest {
+
+    @Test
+    void reusesTheValueWhileTheVersionDoesNotChange() {
+        HistoryCache<String> cache = new HistoryCache<>(100, String::length);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("v1", cache.get("g1", 1, () -> { loads.incrementAndGet(); return "v1"; }));
+        assertEquals("v1", cache.get("g1", 1, () -> { loads.incrementAndGet(); return "otro"; }));
+        assertEquals(1, loads.get());
+
+        assertEquals("v2", cache.get("g1", 2, () -> { loads.incrementAndGet(); return "v2"; }));
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.stats().get("entries"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedOverTheBudget() {
+        HistoryCache<String> cache = new HistoryCache<>(10, String::length);
+        cache.get("a", 1, () -> "aaaa");
+        cache.get("b", 1, () -> "bbbb");
+        cache.get("a", 1, () -> "no");        // a pasa a ser la más reciente
+        cache.get("c", 1, () -> "cccc");      // 12 > 10: sale b
+
+        AtomicInteger loads = new AtomicInteger();
+        cache.get("a", 1, () -> { loads.incrementAndGet(); return "aaaa"; });
+        assertEquals(0, loads.get());
+        cache.get("b", 1, () -> { loads.incrementAndGet(); return "bbbb"; });
+        assertEquals(1, loads.get());
+        assertTrue((long) cache.stats().get("weight") <= 10);
+    }
+
+    @Test
+    void doesNotKeepValuesHeavierThanTheBudget() {
+        HistoryCache<String> cache = new HistoryCache<>(4, String::length);
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            assertEquals("grande", cache.get("g1", 1, () -> { loads.incrementAndGet(); return "grande"; }));
+        }
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.stats().get("entries"));
+    }
+
+    @Test
+    void anOlderVersionDoesNotReplaceANewerOne() {
+        HistoryCache<String> cache = new HistoryCache<>(100, String::length);
+        cache.get("g1", 5, () -> "v5");
+        cache.get("g1", 4, () -> "v4");
+
+        AtomicInteger loads = new AtomicInteger();
+        assertEquals("v5", cache.get("g1", 5, () -> { loads.incrementAndGet(); return "v5"; }));
+        assertEquals(0, loads.get());
+    }
+}
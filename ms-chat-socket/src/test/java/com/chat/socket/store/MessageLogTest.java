@@ -0,0 +1,120 @@
+package com.chat.socket.store;
+
+import chat.Message;
+import chat.MessageType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageLogTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<MessageLog> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() {
+        opened.forEach(MessageLog::close);
+    }
+
+    private MessageLog open(int segmentBytes) throws IOException {
+        MessageLog log = new MessageLog();
+        ReflectionTestUtils.setField(log, "dir", dir.toString());
+        ReflectionTestUtils.setField(log, "segmentBytes", segmentBytes);
+        ReflectionTestUtils.setField(log, "commitWindowMs", 5L);
+        log.open();
+        opened.add(log);
+        return log;
+    }
+
+    static Message text(String id, String to, String text) {
+        return new Message(id, "ana", to, MessageStore.GROUP, MessageType.TEXT, text, "", 1000L, "", 0.0);
+    }
+
+    private static List<Message> replay(MessageLog log) {
+        List<Message> out = new ArrayList<>();
+        log.replay((source, m) -> out.add(m));
+        return out;
+    }
+
+    @Test
+    void replaysRecordsInOrderAcrossSegments() throws IOException {
+        MessageLog log = open(256);
+        List<Message> written = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Message m = text("m" + i, "g1", "hola " + i);
+            written.add(m);
+            log.append(MessageLog.SOURCE_TCP, m);
+        }
+        log.commit();
+        try (Stream<Path> files = Files.list(dir)) {
+            assertTrue(files.count() > 1, "con segmentos de 256 bytes tiene que haber rotado");
+        }
+
+        assertEquals(written, replay(open(256)));
+    }
+
+    @Test
+    void replayKeepsTheSource() throws IOException {
+        MessageLog log = open(4096);
+        log.append(MessageLog.SOURCE_STOMP, text("a", "g1", "x"));
+        log.appendAll(MessageLog.SOURCE_ICE, List.of(text("b", "g1", "y"), text("c", "g2", "z")));
+
+        List<Byte> sources = new ArrayList<>();
+        log.replay((source, m) -> sources.add(source));
+        assertEquals(List.of(MessageLog.SOURCE_STOMP, MessageLog.SOURCE_ICE, MessageLog.SOURCE_ICE), sources);
+    }
+
+    @Test
+    void truncatesAtTheFirstTornRecordAndKeepsAppending() throws IOException {
+        MessageLog log = open(4096);
+        log.append(MessageLog.SOURCE_TCP, text("m0", "g1", "primero"));
+        log.append(MessageLog.SOURCE_TCP, text("m1", "g1", "segundo"));
+        log.append(MessageLog.SOURCE_TCP, text("m2", "g1", "tercero"));
+        log.commit();
+
+        // Se rompe un byte del cuerpo del segundo registro (como una escritura a medias)
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            ch.read(header, 0);
+            int second = 8 + header.flip().getInt();
+            ch.write(ByteBuffer.wrap(new byte[]{(byte) 0xff}), second + 8 + 3);
+        }
+
+        MessageLog reopened = open(4096);
+        assertEquals(List.of(text("m0", "g1", "primero")), replay(reopened));
+        assertTrue((long) reopened.stats().get("truncatedBytes") > 0);
+
+        // Lo nuevo se escribe donde terminaba lo válido
+        reopened.append(MessageLog.SOURCE_TCP, text("m3", "g1", "cuarto"));
+        assertEquals(List.of(text("m0", "g1", "primero"), text("m3", "g1", "cuarto")), replay(reopened));
+    }
+
+    @Test
+    void rejectsRecordsLargerThanASegment() throws IOException {
+        MessageLog log = open(256);
+        Message big = text("big", "g1", "x".repeat(1000));
+
+        assertThrows(IllegalArgumentException.class, () -> log.checkSize(big));
+        assertThrows(IllegalArgumentException.class, () -> log.append(MessageLog.SOURCE_TCP, big));
+        assertEquals(List.of(), replay(log));
+    }
+}
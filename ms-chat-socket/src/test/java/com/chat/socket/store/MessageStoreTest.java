@@ -0,0 +1,257 @@
+package com.chat.socket.store;
+
+import chat.HistoryPage;
+import chat.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.chat.socket.store.MessageLogTest.text;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<MessageLog> logs = new ArrayList<>();
+
+    @AfterEach
+    void closeLogs() {
+        logs.forEach(MessageLog::close);
+    }
+
+    private MessageStore open(int segmentBytes) throws IOException {
+        MessageLog log = new MessageLog();
+        ReflectionTestUtils.setField(log, "dir", dir.toString());
+        ReflectionTestUtils.setField(log, "segmentBytes", segmentBytes);
+        ReflectionTestUtils.setField(log, "commitWindowMs", 5L);
+        log.open();
+        logs.add(log);
+        MessageStore store = new MessageStore(log);
+        ReflectionTestUtils.setField(store, "dedupWindowMs", 600_000L);
+        ReflectionTestUtils.setField(store, "dedupMaxEntries", 1024);
+        store.load();
+        return store;
+    }
+
+    private static List<String> texts(Message[] ms) {
+        return Arrays.stream(ms).map(m -> m.text).toList();
+    }
+
+    private static void fill(MessageStore store, String to, int n) {
+        for (int i = 0; i < n; i++) {
+            store.append(MessageLog.SOURCE_TCP, text("m" + i, to, "t" + i));
+        }
+    }
+
+    @Test
+    void pagesBackwardsWithTheFirstCursor() throws IOException {
+        MessageStore store = open(1 << 20);
+        fill(store, "g1", 10);
+
+        HistoryPage last = store.page("group", "g1", -1, 4);
+        assertEquals(6, last.firstCursor);
+        assertEquals(List.of("t6", "t7", "t8", "t9"), texts(last.items));
+
+        HistoryPage before = store.page("group", "g1", last.firstCursor, 4);
+        assertEquals(2, before.firstCursor);
+        assertEquals(List.of("t2", "t3", "t4", "t5"), texts(before.items));
+
+        HistoryPage first = store.page("group", "g1", before.firstCursor, 4);
+        assertEquals(0, first.firstCursor);
+        assertEquals(List.of("t0", "t1"), texts(first.items));
+    }
+
+    @Test
+    void readsForwardFromACursor() throws IOException {
+        MessageStore store = open(1 << 20);
+        fill(store, "g1", 10);
+
+        HistoryPage page = store.since("group", "g1", 7, 100);
+        assertEquals(8, page.firstCursor);
+        assertEquals(List.of("t8", "t9"), texts(page.items));
+
+        HistoryPage fromStart = store.since("group", "g1", -1, 3);
+        assertEquals(0, fromStart.firstCursor);
+        assertEquals(List.of("t0", "t1", "t2"), texts(fromStart.items));
+
+        HistoryPage none = store.since("group", "g1", 9, 100);
+        assertEquals(10, none.firstCursor);
+        assertEquals(0, none.items.length);
+        assertEquals(0, store.page("group", "nadie", -1, 10).items.length);
+    }
+
+    @Test
+    void extremeCursorsAndLimitsDoNotOverflow() throws IOException {
+        MessageStore store = open(1 << 20);
+        fill(store, "g1", 5);
+
+        HistoryPage past = store.since("group", "g1", Long.MAX_VALUE, 10);
+        assertEquals(5, past.firstCursor);
+        assertEquals(0, past.items.length);
+
+        HistoryPage rest = store.since("group", "g1", 2, Integer.MAX_VALUE);
+        assertEquals(3, rest.firstCursor);
+        assertEquals(List.of("t3", "t4"), texts(rest.items));
+
+        assertEquals(0, store.since("group", "nadie", Long.MAX_VALUE, Integer.MAX_VALUE).items.length);
+        assertEquals(0, store.since("group", "g1", -1, -5).items.length);
+
+        HistoryPage all = store.page("group", "g1", Long.MAX_VALUE, Integer.MAX_VALUE);
+        assertEquals(0, all.firstCursor);
+        assertEquals(5, all.items.length);
+        assertEquals(0, store.page("group", "g1", -1, Integer.MIN_VALUE).items.length);
+    }
+
+    @Test
+    void historyAndVersionSurviveARestart() throws IOException {
+        MessageStore store = open(1 << 20);
+        fill(store, "g1", 5);
+        Message dm = text("d", "ana", "dm");
+        dm.scope = MessageStore.USER;
+        store.append(MessageLog.SOURCE_ICE, dm);
+        logs.get(0).close();
+
+        MessageStore reloaded = open(1 << 20);
+        assertEquals(5, reloaded.version("group", "g1"));
+        assertEquals(List.of("t0", "t1", "t2", "t3", "t4"), texts(reloaded.history("group", "g1")));
+        assertEquals(List.of("dm"), texts(reloaded.history("user", "ana")));
+    }
+
+    @Test
+    void concurrentWritersKeepTheLogAndMemoryInTheSameOrder() throws Exception {
+        MessageStore store = open(1 << 20);
+        int threads = 4;
+        int perThread = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicInteger notVisible = new AtomicInteger();
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    Message m = text(id + "-" + i, "g1", "x");
+                    store.append(MessageLog.SOURCE_TCP, m);
+                    // Al volver append() el mensaje ya se ve
+                    Message[] seen = store.history("group", "g1");
+                    if (!Arrays.asList(seen).contains(m)) {
+                        notVisible.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : done) {
+            f.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        assertEquals(0, notVisible.get());
+
+        List<String> inMemory = Arrays.stream(store.history("group", "g1")).map(m -> m.id).toList();
+        assertEquals(threads * perThread, inMemory.size());
+        logs.get(0).close();
+        List<String> replayed = Arrays.stream(open(1 << 20).history("group", "g1")).map(m -> m.id).toList();
+        assertEquals(inMemory, replayed);
+    }
+
+    @Test
+    void aRejectedRecordNeverBecomesVisible() throws IOException {
+        MessageStore store = open(512);
+        store.append(MessageLog.SOURCE_TCP, text("a", "g1", "chico"));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> store.append(MessageLog.SOURCE_TCP, text("b", "g1", "x".repeat(2000))));
+        assertEquals(1, store.version("group", "g1"));
+
+        // Un lote con un mensaje rechazado no deja nada guardado a medias
+        assertThrows(IllegalArgumentException.class, () -> store.appendAll(MessageLog.SOURCE_TCP,
+                List.of(text("c", "g2", "ok"), text("d", "g2", "x".repeat(2000)))));
+        assertFalse(store.exists("group", "g2"));
+    }
+
+    @Test
+    void aFullConversationFailsBeforeWritingTheLog() throws IOException {
+        MessageStore store = open(1 << 20);
+        ReflectionTestUtils.setField(store, "maxConversationMessages", 2);
+        fill(store, "g1", 2);
+
+        assertThrows(IllegalStateException.class, () -> store.append(MessageLog.SOURCE_TCP, text("x", "g1", "de más")));
+        assertThrows(IllegalStateException.class, () -> store.appendAll(MessageLog.SOURCE_TCP, List.of(text("y", "g1", "de más"))));
+        assertEquals(2L, logs.get(0).stats().get("appended"));
+        // Las demás conversaciones siguen aceptando
+        fill(store, "g2", 1);
+        logs.get(0).close();
+
+        assertEquals(2, open(1 << 20).version("group", "g1"));
+    }
+
+    @Test
+    void appendAllGroupsRunsByConversation() throws IOException {
+        MessageStore store = open(1 << 20);
+        List<String> notified = new ArrayList<>();
+        store.addListener((scope, id) -> notified.add(scope + ":" + id));
+
+        store.appendAll(MessageLog.SOURCE_TCP, List.of(
+                text("1", "g1", "a"), text("2", "g1", "b"), text("3", "g2", "c"), text("4", "g1", "d")));
+
+        assertEquals(List.of("group:g1", "group:g2", "group:g1"), notified);
+        assertEquals(List.of("a", "b", "d"), texts(store.history("group", "g1")));
+        assertEquals(List.of("c"), texts(store.history("group", "g2")));
+    }
+
+    @Test
+    void claimsAreRememberedAcrossRestartsAndCanBeReleased() throws IOException {
+        MessageStore store = open(1 << 20);
+        assertTrue(store.claim("ana", "c1"));
+        assertFalse(store.claim("ana", "c1"));
+        assertTrue(store.claim("karen", "c1"));
+
+        store.release("ana", "c1");
+        assertTrue(store.claim("ana", "c1"));
+
+        // Lo guardado hace poco con id del cliente se sigue reconociendo después de reiniciar
+        Message m = text("c2", "g1", "hola");
+        m.createdAt = System.currentTimeMillis();
+        store.append(MessageLog.source(MessageLog.SOURCE_TCP, true), m);
+        logs.get(0).close();
+        assertFalse(open(1 << 20).claim("ana", "c2"));
+    }
+
+    @Test
+    void onlyClientSuppliedIdsAreReclaimedOnLoad() throws IOException {
+        MessageStore store = open(1 << 20);
+        long now = System.currentTimeMillis();
+        Message generated = text("srv-1", "g1", "a");
+        generated.createdAt = now;
+        store.append(MessageLog.SOURCE_ICE, generated);
+
+        List<Message> batch = new ArrayList<>();
+        for (String id : List.of("c1", "srv-2", "c3")) {
+            Message m = text(id, "g1", id);
+            m.createdAt = now;
+            batch.add(m);
+        }
+        byte tcp = MessageLog.SOURCE_TCP;
+        store.appendAll(new byte[]{MessageLog.source(tcp, true), tcp, MessageLog.source(tcp, true)}, batch);
+        logs.get(0).close();
+
+        MessageStore reloaded = open(1 << 20);
+        assertEquals(List.of("a", "c1", "srv-2", "c3"), texts(reloaded.history("group", "g1")));
+        assertTrue(reloaded.claim("ana", "srv-1"));
+        assertTrue(reloaded.claim("ana", "srv-2"));
+        assertFalse(reloaded.claim("ana", "c1"));
+        assertFalse(reloaded.claim("ana", "c3"));
+    }
+}
@@ -0,0 +1,235 @@
+package com.chat.socket.tcp;
+
+import com.chat.socket.store.MessageLog;
+import com.chat.socket.store.MessageStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Framing y procesamiento del adaptador TCP sobre un socket real (puerto efímero). */
+class TcpJsonServerTest {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final CBORMapper CBOR = new CBORMapper();
+
+    @TempDir
+    Path dir;
+
+    private MessageLog log;
+    private TcpJsonServer server;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    @BeforeEach
+    void start() throws IOException {
+        log = new MessageLog();
+        ReflectionTestUtils.setField(log, "dir", dir.toString());
+        ReflectionTestUtils.setField(log, "segmentBytes", 1 << 20);
+        ReflectionTestUtils.setField(log, "commitWindowMs", 5L);
+        log.open();
+        MessageStore store = new MessageStore(log);
+        ReflectionTestUtils.setField(store, "dedupWindowMs", 600_000L);
+        ReflectionTestUtils.setField(store, "dedupMaxEntries", 1024);
+        store.load();
+
+        server = new TcpJsonServer(store);
+        Map<String, Object> settings = Map.ofEntries(
+                Map.entry("port", 0), Map.entry("unixPath", ""), Map.entry("ioThreads", 1),
+                Map.entry("ioBufferBytes", 16), Map.entry("workers", 2), Map.entry("workerQueue", 64),
+                Map.entry("maxFrameBytes", 1024), Map.entry("maxBatchItems", 10),
+                Map.entry("historyCacheBytes", 1L << 20), Map.entry("maxSubscriptions", 4),
+                Map.entry("pushThreads", 1), Map.entry("subscribeMaxPendingBytes", 1L << 20),
+                Map.entry("maxInFlight", 64), Map.entry("retryAfterMinMs", 50L), Map.entry("retryAfterMaxMs", 2000L));
+        settings.forEach((field, value) -> ReflectionTestUtils.setField(server, field, value));
+        server.start();
+
+        ServerSocketChannel listening = (ServerSocketChannel) ReflectionTestUtils.getField(server, "server");
+        socket = new Socket("127.0.0.1", listening.socket().getLocalPort());
+        socket.setSoTimeout(5000);
+        in = new BufferedInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        socket.close();
+        server.stop();
+        log.close();
+    }
+
+    private void write(String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private JsonNode readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            assertNotEquals(-1, b, "conexión cerrada");
+            line.write(b);
+        }
+        return JSON.readTree(line.toByteArray());
+    }
+
+    private void writeFrame(byte[] payload, int splitAt) throws IOException {
+        byte[] framed = new byte[4 + payload.length];
+        framed[0] = (byte) (payload.length >>> 24);
+        framed[1] = (byte) (payload.length >>> 16);
+        framed[2] = (byte) (payload.length >>> 8);
+        framed[3] = (byte) payload.length;
+        System.arraycopy(payload, 0, framed, 4, payload.length);
+        out.write(framed, 0, splitAt);
+        out.flush();
+        out.write(framed, splitAt, framed.length - splitAt);
+        out.flush();
+    }
+
+    private JsonNode readFrame() throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] payload = new byte[data.readInt()];
+        data.readFully(payload);
+        return CBOR.readTree(payload);
+    }
+
+    @Test
+    void linesMaySpanSeveralReadsAndEndInCrLf() throws IOException {
+        write("{\"action\":\"sendMessage\",\"reqId\":1,\"toType\":\"group\",\"to\":\"g1\",");
+        write("\"from\":\"ana\",\"content\":{\"type\":\"text\",\"text\":\"hola\"}}\r\n\n   \n");
+        write("{\"action\":\"getHistory\",\"reqId\":2,\"scope\":\"group\",\"id\":\"g1\"}\n");
+
+        JsonNode sent = readLine();
+        assertEquals(1, sent.get("reqId").asInt());
+        assertEquals(1, sent.get("stored").asInt());
+
+        JsonNode history = readLine();
+        assertEquals(2, history.get("reqId").asInt());
+        assertEquals("hola", history.get("items").get(0).get("text").asText());
+    }
+
+    @Test
+    void aClosedConnectionIgnoresLateFlushesAndClosesOnce() throws Exception {
+        write("{\"action\":\"getHistory\",\"reqId\":1,\"scope\":\"group\",\"id\":\"g1\"}\n");
+        readLine();
+        @SuppressWarnings("unchecked")
+        Set<TcpConnection> open = (Set<TcpConnection>) ReflectionTestUtils.getField(server, "connections");
+        TcpConnection conn = open.iterator().next();
+
+        conn.close();
+        conn.close();
+        assertTrue(conn.isClosed());
+        assertDoesNotThrow(() -> conn.flush(ByteBuffer.allocate(16)));
+        assertEquals(0, server.stats().get("connections"));
+
+        // El loop sigue atendiendo a las demás
+        try (Socket other = new Socket("127.0.0.1", socket.getPort())) {
+            other.setSoTimeout(5000);
+            other.getOutputStream().write("{\"action\":\"getHistory\",\"reqId\":2,\"id\":\"g1\"}\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(new BufferedReader(new InputStreamReader(other.getInputStream(), StandardCharsets.UTF_8))
+                    .readLine().contains("\"reqId\":2"));
+        }
+    }
+
+    @Test
+    void invalidJsonKeepsTheReqIdWhenItCanBeRead() throws IOException {
+        write("{\"reqId\":42,\"action\":\"sendMessage\",\n");
+        JsonNode reply = readLine();
+        assertEquals("invalid_json", reply.get("error").asText());
+        assertEquals(42, reply.get("reqId").asInt());
+    }
+
+    @Test
+    void tooLargeLinesCloseTheConnection() throws IOException {
+        write("{\"action\":\"getHistory\",\"id\":\"" + "x".repeat(1100) + "\"}\n");
+        assertEquals("frame_too_large", readLine().get("error").asText());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void cborHandshakeSwitchesToLengthPrefixedFrames() throws IOException {
+        // El handshake y el primer frame llegan en el mismo write
+        byte[] send = CBOR.writeValueAsBytes(Map.of("action", "sendMessage", "reqId", 7, "toType", "group",
+                "to", "g1", "from", "ana", "content", Map.of("type", "text", "text", "binario")));
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        first.write("{\"action\":\"binary\",\"format\":\"cbor\"}\n".getBytes(StandardCharsets.UTF_8));
+        first.write(new byte[]{0, 0, 0, (byte) send.length});
+        first.write(send);
+        out.write(first.toByteArray());
+        out.flush();
+
+        assertEquals("cbor", readLine().get("format").asText());
+        JsonNode stored = readFrame();
+        assertEquals(7, stored.get("reqId").asInt());
+        assertEquals(1, stored.get("stored").asInt());
+
+        // Un frame partido en medio del prefijo de largo
+        writeFrame(CBOR.writeValueAsBytes(Map.of("action", "getHistory", "reqId", 8, "scope", "group", "id", "g1")), 2);
+        JsonNode history = readFrame();
+        assertEquals(8, history.get("reqId").asInt());
+        assertEquals("binario", history.get("items").get(0).get("text").asText());
+    }
+
+    @Test
+    void batchGroupsConsecutiveSendsToTheSameConversation() throws IOException {
+        write("{\"action\":\"batch\",\"reqId\":1,\"requests\":["
+                + "{\"action\":\"sendMessage\",\"reqId\":\"a\",\"toType\":\"group\",\"to\":\"g1\",\"from\":\"ana\",\"content\":{\"type\":\"text\",\"text\":\"1\"},\"clientMsgId\":\"c1\"},"
+                + "{\"action\":\"sendMessage\",\"reqId\":\"b\",\"toType\":\"group\",\"to\":\"g1\",\"from\":\"ana\",\"content\":{\"type\":\"text\",\"text\":\"2\"}},"
+                + "{\"action\":\"sendMessage\",\"reqId\":\"c\",\"toType\":\"group\",\"to\":\"g1\",\"from\":\"ana\",\"content\":{\"type\":\"text\",\"text\":\"1\"},\"clientMsgId\":\"c1\"},"
+                + "{\"action\":\"sendMessage\",\"reqId\":\"d\",\"toType\":\"group\",\"to\":\"g2\",\"from\":\"ana\",\"content\":{\"type\":\"text\",\"text\":\"3\"}},"
+                + "{\"action\":\"getHistory\",\"reqId\":\"e\",\"scope\":\"group\",\"id\":\"g1\"},"
+                + "{\"action\":\"batch\",\"reqId\":\"f\",\"requests\":[]}"
+                + "]}\n");
+
+        JsonNode results = readLine().get("results");
+        assertEquals(6, results.size());
+        assertEquals(1, results.get(0).get("stored").asInt());
+        assertEquals(1, results.get(1).get("stored").asInt());
+        assertTrue(results.get(2).get("duplicate").asBoolean());
+        assertEquals(1, results.get(3).get("stored").asInt());
+        assertEquals(2, results.get(4).get("items").size());
+        assertEquals("nested_batch", results.get(5).get("error").asText());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(String.valueOf((char) ('a' + i)), results.get(i).get("reqId").asText());
+        }
+        // [a, b] y [d]: un appendAll por tramo
+        assertEquals(2L, server.stats().get("batchAppends"));
+    }
+
+    @Test
+    void subscribeAndBinaryAreRejectedInsideABatch() throws IOException {
+        write("{\"action\":\"batch\",\"reqId\":1,\"requests\":["
+                + "{\"action\":\"subscribe\",\"reqId\":\"a\",\"conversations\":[{\"scope\":\"group\",\"id\":\"g1\"}]},"
+                + "{\"action\":\"binary\",\"reqId\":\"b\",\"format\":\"cbor\"},"
+                + "{\"action\":\"getHistory\",\"reqId\":\"c\",\"scope\":\"group\",\"id\":\"g1\"}"
+                + "]}\n");
+
+        JsonNode results = readLine().get("results");
+        assertEquals("not_batchable", results.get(0).get("error").asText());
+        assertEquals("not_batchable", results.get(1).get("error").asText());
+        assertEquals("c", results.get(2).get("reqId").asText());
+        assertTrue(results.get(2).get("ok").asBoolean());
+
+        // La conexión sigue en JSON y sin suscripciones
+        write("{\"action\":\"getHistory\",\"reqId\":2,\"scope\":\"group\",\"id\":\"g1\"}\n");
+        assertEquals(2, readLine().get("reqId").asInt());
+        assertEquals(0, ((Map<?, ?>) server.stats().get("subscriptions")).get("connections"));
+        assertEquals(0L, server.stats().get("binaryConnections"));
+    }
+}
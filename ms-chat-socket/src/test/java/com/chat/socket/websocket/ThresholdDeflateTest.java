@@ -0,0 +1,109 @@
+package com.chat.socket.websocket;
+
+import jakarta.websocket.Extension;
+import org.apache.tomcat.websocket.Constants;
+import org.apache.tomcat.websocket.MessagePart;
+import org.apache.tomcat.websocket.Transformation;
+import org.apache.tomcat.websocket.TransformationResult;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThresholdDeflateTest {
+
+    // Deflate de mentira: deja la mitad del payload y anota lo que pasó por él
+    private static final class HalfDeflate implements Transformation {
+        final List<MessagePart> seen = new ArrayList<>();
+
+        @Override
+        public List<MessagePart> sendMessagePart(List<MessagePart> parts) {
+            List<MessagePart> out = new ArrayList<>();
+            for (MessagePart p : parts) {
+                seen.add(p);
+                out.add(part(p.isFin(), p.getOpCode(), p.getPayload().remaining() / 2));
+            }
+            return out;
+        }
+
+        @Override public void setNext(Transformation t) {}
+        @Override public boolean validateRsvBits(int i) { return true; }
+        @Override public Extension getExtensionResponse() { return null; }
+        @Override public TransformationResult getMoreData(byte opCode, boolean fin, int rsv, ByteBuffer dest) { return null; }
+        @Override public boolean validateRsv(int rsv, byte opCode) { return true; }
+        @Override public void close() {}
+    }
+
+    // El constructor de MessagePart es de paquete en Tomcat
+    private static MessagePart part(boolean fin, byte opCode, int bytes) {
+        try {
+            Constructor<MessagePart> c = MessagePart.class.getDeclaredConstructor(boolean.class, int.class, byte.class,
+                    ByteBuffer.class, jakarta.websocket.SendHandler.class, jakarta.websocket.SendHandler.class, long.class);
+            c.setAccessible(true);
+            return c.newInstance(fin, 0, opCode, ByteBuffer.allocate(bytes), null, null, -1L);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void smallMessagesSkipTheDeflater() throws Exception {
+        HalfDeflate deflate = new HalfDeflate();
+        EndpointStats stats = new EndpointStats(false, 256);
+        ThresholdDeflate t = new ThresholdDeflate(deflate, 256, stats);
+
+        List<MessagePart> out = t.sendMessagePart(List.of(part(true, Constants.OPCODE_TEXT, 100)));
+        assertEquals(100, out.get(0).getPayload().remaining());
+        assertTrue(deflate.seen.isEmpty());
+
+        out = t.sendMessagePart(List.of(part(true, Constants.OPCODE_TEXT, 1000)));
+        assertEquals(500, out.get(0).getPayload().remaining());
+        assertEquals(1, deflate.seen.size());
+
+        assertEquals(1L, stats.stats().get("uncompressedMessages"));
+        assertEquals(100L, stats.stats().get("uncompressedBytes"));
+        assertEquals(1000L, stats.stats().get("compressedBytesIn"));
+        assertEquals(500L, stats.stats().get("compressedBytesOut"));
+        assertEquals(0.5, stats.stats().get("compressionRatio"));
+    }
+
+    @Test
+    void aFragmentedMessageIsCompressedWhole() throws Exception {
+        HalfDeflate deflate = new HalfDeflate();
+        ThresholdDeflate t = new ThresholdDeflate(deflate, 256, null);
+
+        // Primera parte chica pero sin fin: el mensaje no es chico
+        t.sendMessagePart(List.of(part(false, Constants.OPCODE_TEXT, 10)));
+        t.sendMessagePart(List.of(part(true, Constants.OPCODE_CONTINUATION, 10)));
+        assertEquals(2, deflate.seen.size());
+
+        // El mensaje siguiente se decide de nuevo
+        t.sendMessagePart(List.of(part(true, Constants.OPCODE_TEXT, 10)));
+        assertEquals(2, deflate.seen.size());
+    }
+
+    @Test
+    void controlFramesPassThroughWithoutEndingTheMessage() throws Exception {
+        HalfDeflate deflate = new HalfDeflate();
+        ThresholdDeflate t = new ThresholdDeflate(deflate, 256, null);
+
+        t.sendMessagePart(List.of(part(false, Constants.OPCODE_BINARY, 1000)));
+        List<MessagePart> ping = t.sendMessagePart(List.of(part(true, Constants.OPCODE_PING, 4)));
+        assertEquals(4, ping.get(0).getPayload().remaining());
+        // La continuación chica sigue en el mensaje comprimido
+        t.sendMessagePart(List.of(part(true, Constants.OPCODE_CONTINUATION, 10)));
+        assertEquals(2, deflate.seen.size());
+    }
+
+    @Test
+    void neverCompressesWithAnInfiniteThreshold() throws Exception {
+        HalfDeflate deflate = new HalfDeflate();
+        ThresholdDeflate t = new ThresholdDeflate(deflate, Integer.MAX_VALUE, null);
+        t.sendMessagePart(List.of(part(true, Constants.OPCODE_BINARY, 100_000)));
+        assertTrue(deflate.seen.isEmpty());
+    }
+}
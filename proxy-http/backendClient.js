@@ -1,42 +1,150 @@
 // backendClient.js (CommonJS)
+// Conexión persistente con el backend Java: varias peticiones en vuelo sobre el
+// mismo socket, emparejadas por "reqId" (el servidor lo devuelve en cada respuesta).
+// Con socketPath se usa el socket Unix del backend y, si no está, TCP como respaldo.
 const net = require('node:net');
 
-function sendToJava({ host, port, payload, timeoutMs = 8000 }) {
+const connections = new Map(); // "host:port" o "unix:/ruta" -> conexión
+let nextReqId = 1;
+
+// Si el socket Unix falla se usa TCP y se vuelve a probar pasado este tiempo
+const UNIX_RETRY_MS = 30000;
+const UNIX_DOWN_CODES = ['ENOENT', 'ECONNREFUSED', 'EACCES', 'ENOTSOCK'];
+let unixDownUntil = 0;
+
+function targetKey({ host, port, socketPath }) {
+  return socketPath ? `unix:${socketPath}` : `${host}:${port}`;
+}
+
+function connectSocket(socket, { host, port, socketPath }, onConnect) {
+  if (socketPath) {
+    socket.connect({ path: socketPath }, onConnect);
+  } else {
+    socket.setNoDelay(true);
+    socket.connect(port, host, onConnect);
+  }
+}
+
+function getConnection(target) {
+  const key = targetKey(target);
+  let conn = connections.get(key);
+  if (conn) return conn;
+
+  const socket = new net.Socket();
+  socket.setKeepAlive(true);
+  conn = { socket, pending: new Map(), buffer: '', ready: false, queue: [] };
+  connections.set(key, conn);
+
+  const fail = (err) => {
+    if (connections.get(key) === conn) connections.delete(key);
+    for (const p of conn.pending.values()) {
+      clearTimeout(p.timer);
+      p.reject(err);
+    }
+    conn.pending.clear();
+  };
+
+  socket.on('error', (err) => fail(err));
+  socket.on('close', () => fail(new Error('Conexión con el backend cerrada')));
+
+  socket.on('data', (chunk) => {
+    conn.buffer += chunk.toString('utf8');
+    let idx;
+    while ((idx = conn.buffer.indexOf('\n')) >= 0) {
+      const line = conn.buffer.slice(0, idx);
+      conn.buffer = conn.buffer.slice(idx + 1);
+      if (!line) continue;
+      let json;
+      try {
+        json = JSON.parse(line);
+      } catch (e) {
+        console.error('Respuesta no JSON del backend: ' + line);
+        continue;
+      }
+      const p = conn.pending.get(json.reqId);
+      if (!p) continue; // respuesta tardía de una petición que ya expiró
+      conn.pending.delete(json.reqId);
+      clearTimeout(p.timer);
+      delete json.reqId;
+      p.resolve(json);
+    }
+  });
+
+  connectSocket(socket, target, () => {
+    conn.ready = true;
+    // Lo encolado mientras conectaba sale en un solo write
+    if (conn.queue.length) socket.write(conn.queue.join(''));
+    conn.queue = [];
+  });
+
+  return conn;
+}
+
+function sendToJava({ host, port, socketPath, payload, timeoutMs = 8000 }) {
+  if (socketPath && Date.now() >= unixDownUntil) {
+    return sendOn({ socketPath }, payload, timeoutMs).catch((err) => {
+      // Nada se llegó a escribir (se encola hasta conectar): reintentar por TCP es seguro
+      if (!UNIX_DOWN_CODES.includes(err.code)) throw err;
+      unixDownUntil = Date.now() + UNIX_RETRY_MS;
+      return sendOn({ host, port }, payload, timeoutMs);
+    });
+  }
+  return sendOn({ host, port }, payload, timeoutMs);
+}
+
+function sendOn(target, payload, timeoutMs) {
   return new Promise((resolve, reject) => {
-    const socket = new net.Socket();
-    let buffer = '';
+    const conn = getConnection(target);
+    const reqId = nextReqId++;
+
     const timer = setTimeout(() => {
-      socket.destroy();
+      conn.pending.delete(reqId);
       reject(new Error('TCP timeout'));
     }, timeoutMs);
+    conn.pending.set(reqId, { resolve, reject, timer });
 
-    socket.on('error', (err) => {
-      clearTimeout(timer);
-      reject(err);
-    });
+    // deadlineMs: pasado este instante el backend descarta la petición en vez de ejecutarla
+    const deadlineMs = Date.now() + timeoutMs;
+    const msg = JSON.stringify({ ...payload, reqId, deadlineMs }) + '\n';
+    if (conn.ready) conn.socket.write(msg);
+    else conn.queue.push(msg);
+  });
+}
 
-    socket.on('data', (chunk) => {
-      buffer += chunk.toString('utf8');
-      const idx = buffer.indexOf('\n');
-      if (idx >= 0) {
-        const line = buffer.slice(0, idx);
-        socket.end();
-        try {
-          const json = JSON.parse(line || '{}');
-          clearTimeout(timer);
-          resolve(json);
-        } catch (e) {
-          clearTimeout(timer);
-          reject(new Error('Respuesta no JSON del backend: ' + line));
-        }
+// Suscripción en una conexión propia: el backend empuja un evento NDJSON por mensaje nuevo.
+// conversations: [{ scope, id, after }]; devuelve una función para cerrar la suscripción.
+function subscribe({ host, port, socketPath, conversations, onEvent, onAck, onClose }) {
+  const socket = new net.Socket();
+  socket.setKeepAlive(true);
+  let buffer = '';
+
+  socket.on('data', (chunk) => {
+    buffer += chunk.toString('utf8');
+    let idx;
+    while ((idx = buffer.indexOf('\n')) >= 0) {
+      const line = buffer.slice(0, idx);
+      buffer = buffer.slice(idx + 1);
+      if (!line) continue;
+      let json;
+      try {
+        json = JSON.parse(line);
+      } catch (e) {
+        console.error('Evento no JSON del backend: ' + line);
+        continue;
       }
-    });
+      if (json.event) onEvent(json);
+      else if (onAck) onAck(json);
+    }
+  });
+  socket.on('error', () => {}); // el cierre llega igual por 'close'
+  socket.on('close', () => onClose && onClose());
 
-    socket.connect(port, host, () => {
-      const msg = JSON.stringify(payload) + '\n';
-      socket.write(Buffer.from(msg, 'utf8'));
-    });
+  const target = socketPath && Date.now() >= unixDownUntil ? { socketPath } : { host, port };
+  connectSocket(socket, target, () => {
+    socket.write(JSON.stringify({ action: 'subscribe', reqId: 'sub', conversations }) + '\n');
   });
+
+  return () => socket.destroy();
 }
 
-module.exports = { sendToJava };
+module.exports = { sendToJava, subscribe };
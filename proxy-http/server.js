@@ -2,7 +2,7 @@ const express = require('express');
 const cors = require('cors');
 const path = require('node:path');
 require('dotenv').config();
-const { sendToJava } = require('./backendClient');
+const { sendToJava, subscribe } = require('./backendClient');
 
 const app = express();
 app.use(cors());
@@ -11,8 +11,19 @@ app.use(express.json({ limit: '1mb' }));
 const PORT = Number(process.env.PORT || 3000);
 const JAVA_HOST = process.env.JAVA_HOST || '127.0.0.1';
 const JAVA_PORT = Number(process.env.JAVA_PORT || 9090);
+// Socket Unix del backend (chat.tcp.unix-path); vacío = solo TCP
+const JAVA_SOCKET = process.env.JAVA_SOCKET || undefined;
 const REQUEST_TIMEOUT_MS = Number(process.env.REQUEST_TIMEOUT_MS || 8000);
 
+// Respuesta del backend -> HTTP; "overloaded" se traduce a 503 con Retry-After
+function reply(res, resp) {
+  if (resp && resp.error === 'overloaded') {
+    res.set('Retry-After', String(Math.max(1, Math.ceil((resp.retryAfterMs || 1000) / 1000))));
+    return res.status(503).json(resp);
+  }
+  res.json(resp);
+}
+
 // 1) Sirve el cliente estático (¡antes de cualquier app.get('/')!)
 const publicDir = path.join(__dirname, 'web');
 app.use('/', express.static(publicDir));
@@ -26,8 +37,8 @@ app.post('/api/groups', async (req, res) => {
     const { name, members } = req.body || {};
     if (!name) return res.status(400).json({ error: 'name requerido' });
     const payload = { action: 'createGroup', name, members: members || [] };
-    const resp = await sendToJava({ host: JAVA_HOST, port: JAVA_PORT, payload, timeoutMs: REQUEST_TIMEOUT_MS });
-    res.json(resp);
+    const resp = await sendToJava({ host: JAVA_HOST, port: JAVA_PORT, socketPath: JAVA_SOCKET, payload, timeoutMs: REQUEST_TIMEOUT_MS });
+    reply(res, resp);
   } catch (e) { res.status(502).json({ error: 'java_unavailable', message: String(e.message || e) }); }
 });
 
@@ -39,13 +50,17 @@ app.post('/api/messages', async (req, res) => {
     if (contentType === 'text' && !text) return res.status(400).json({ error: 'text requerido' });
     if (contentType === 'audio' && !audioUrl) return res.status(400).json({ error: 'audioUrl requerido' });
 
+    // Id del mensaje puesto por el cliente (body o header Idempotency-Key): si reintenta tras un
+    // timeout, Java lo reconoce y no lo guarda dos veces
+    const clientMsgId = req.body.clientMsgId || req.get('Idempotency-Key');
     const payload = {
       action: 'sendMessage', toType, to, from,
       content: { type: contentType, text: text || null, audioUrl: audioUrl || null },
-      createdAt: Date.now()
+      createdAt: Date.now(),
+      clientMsgId: clientMsgId ? String(clientMsgId) : undefined
     };
-    const resp = await sendToJava({ host: JAVA_HOST, port: JAVA_PORT, payload, timeoutMs: REQUEST_TIMEOUT_MS });
-    res.json(resp);
+    const resp = await sendToJava({ host: JAVA_HOST, port: JAVA_PORT, socketPath: JAVA_SOCKET, payload, timeoutMs: REQUEST_TIMEOUT_MS });
+    reply(res, resp);
   } catch (e) { res.status(502).json({ error: 'java_unavailable', message: String(e.message || e) }); }
 });
 
@@ -54,12 +69,34 @@ app.get('/api/history', async (req, res) => {
     const { scope, id } = req.query;
     if (!scope || !id) return res.status(400).json({ error: 'scope (user|group) e id requeridos' });
     const payload = { action: 'getHistory', scope, id };
-    const resp = await sendToJava({ host: JAVA_HOST, port: JAVA_PORT, payload, timeoutMs: REQUEST_TIMEOUT_MS });
-    res.json(resp);
+    const resp = await sendToJava({ host: JAVA_HOST, port: JAVA_PORT, socketPath: JAVA_SOCKET, payload, timeoutMs: REQUEST_TIMEOUT_MS });
+    reply(res, resp);
   } catch (e) { res.status(502).json({ error: 'java_unavailable', message: String(e.message || e) }); }
 });
 
+// Server-Sent Events: mensajes nuevos de una conversación a partir de "after" (cursor)
+// GET /api/stream?scope=group&id=g1&after=12
+app.get('/api/stream', (req, res) => {
+  const { scope, id } = req.query;
+  if (!scope || !id) return res.status(400).json({ error: 'scope (user|group) e id requeridos' });
+  const after = req.query.after !== undefined ? Number(req.query.after) : undefined;
+
+  res.set({ 'Content-Type': 'text/event-stream', 'Cache-Control': 'no-cache', Connection: 'keep-alive' });
+  res.flushHeaders();
+
+  const close = subscribe({
+    host: JAVA_HOST,
+    port: JAVA_PORT,
+    socketPath: JAVA_SOCKET,
+    conversations: [{ scope, id, after: Number.isFinite(after) ? after : undefined }],
+    onAck: (ack) => { if (!ack.ok) res.write(`event: error\ndata: ${JSON.stringify(ack)}\n\n`); },
+    onEvent: (ev) => res.write(`id: ${ev.cursor}\ndata: ${JSON.stringify(ev)}\n\n`),
+    onClose: () => res.end()
+  });
+  req.on('close', close);
+});
+
 app.listen(PORT, () => {
   console.log(`Proxy escuchando en http://localhost:${PORT}`);
-  console.log(`Proxy → Java TCP ${JAVA_HOST}:${JAVA_PORT}`);
+  console.log(`Proxy → Java TCP ${JAVA_HOST}:${JAVA_PORT}` + (JAVA_SOCKET ? ` (unix: ${JAVA_SOCKET})` : ''));
 });
@@ -61,7 +61,9 @@ $("btnSend").onclick = async () => {
     currentUser = from;
     ensureWsConnected();
 
-    const body = { toType, to, from, contentType };
+    // El mismo id viaja por HTTP (clientMsgId) y por WS (id): el servidor guarda el mensaje una sola vez
+    const id = crypto.randomUUID();
+    const body = { toType, to, from, contentType, clientMsgId: id };
     if (contentType === "text") body.text = val;
     else body.audioUrl = val;
 
@@ -72,6 +74,7 @@ $("btnSend").onclick = async () => {
     // 2) Enviamos el mensaje en tiempo real vía WebSocket
     if (contentType === "text") {
       sendWsMessage(to, {
+        id,
         user: from,
         message: val,
         createdAt: Date.now()
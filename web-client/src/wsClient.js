@@ -5,14 +5,17 @@ let stompClient = null;
 let currentRoomId = null;
 let onMessageCallback = null;
 
-// Conecta al backend STOMP /chat-socket y se suscribe a /topic/{roomId}
+// Conecta al backend STOMP y se suscribe a /topic/{roomId}: WebSocket directo a /chat-ws
+// (sin framing SockJS y con permessage-deflate) y SockJS en /chat-socket si no hay WebSocket
 export function connectWs(roomId, onMessage) {
   currentRoomId = roomId;
   onMessageCallback = onMessage;
 
   stompClient = new Client({
-    // Usamos SockJS en vez de brokerURL directo
-    webSocketFactory: () => new SockJS("http://localhost:8080/chat-socket"),
+    webSocketFactory: () =>
+      typeof WebSocket !== "undefined"
+        ? new WebSocket("ws://localhost:8080/chat-ws", ["v12.stomp", "v11.stomp", "v10.stomp"])
+        : new SockJS("http://localhost:8080/chat-socket"),
     reconnectDelay: 5000,
     debug: (str) => console.log("[STOMP]", str)
   });